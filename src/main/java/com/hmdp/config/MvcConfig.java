@@ -1,13 +1,18 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SessionStore;
+import com.hmdp.utils.SignedTokens;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
 
 /**
  * MVC配置类
@@ -20,6 +25,16 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SessionStore sessionStore;
+
+    @Resource
+    private SignedTokens signedTokens;
+
+    // 可以访问运营接口的用户id
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminUserIds;
+
     /**
      * 目的是使拦截器生效
      * @param registry
@@ -33,12 +48,19 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/login",
                         "/shop/**",
                         "/voucher/**",
-                        "shop-type/**",
-                        "/upload/**",
+                        "/shop-type/**",
                         "/blog/hot"
                 ).order(1);
 
+        // 运营统计接口只允许管理员访问
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns(
+                        "/user/sign/active/**",
+                        "/user/sign/retention",
+                        "/upload/stats"
+                ).order(2);
+
         // 刷新token缓存有效期拦截器
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(sessionStore, signedTokens)).addPathPatterns("/**").order(0);
     }
 }
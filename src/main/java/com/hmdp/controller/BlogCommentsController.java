@@ -1,9 +1,12 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +20,25 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    @GetMapping("/of/blog")
+    public Result queryCommentsOfBlog(@RequestParam(value = "cursor", required = false) String cursor,
+                                      @RequestParam("id") Long id) {
+        // 查询一级评论
+        return blogCommentsService.queryCommentsOfBlog(id, cursor);
+    }
+
+    @GetMapping("/replies/{id}")
+    public Result queryReplies(@PathVariable("id") Long id,
+                               @RequestParam(value = "cursor", required = false) String cursor) {
+        // 展开一级评论下的回复
+        return blogCommentsService.queryReplies(id, cursor);
+    }
 }
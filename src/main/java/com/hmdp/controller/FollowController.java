@@ -25,8 +25,20 @@ public class FollowController {
     }
 
     @GetMapping("/common/{id}")
-    public Result followCommon(@PathVariable("id") Long id) {
-        return followService.followCommons(id);
+    public Result followCommon(@PathVariable("id") Long id,
+                               @RequestParam(value = "cursor", required = false) String cursor) {
+        return followService.followCommons(id, cursor);
+    }
+
+    @GetMapping("/common/count/{id}")
+    public Result followCommonCount(@PathVariable("id") Long id) {
+        return followService.countCommons(id);
+    }
+
+    @GetMapping("/recommend")
+    public Result recommend() {
+        // 可能认识的人
+        return followService.recommend();
     }
 
 }
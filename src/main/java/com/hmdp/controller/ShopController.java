@@ -1,12 +1,10 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopSearchDTO;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -46,10 +44,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库并同步索引，返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -71,35 +67,54 @@ public class ShopController {
      *
      * @param typeId  商铺类型
      * @param current 页码
-     * @return 商铺列表
+     * @param cursor  按坐标查询时上一页返回的游标，传入时忽略页码
+     * @return 商铺列表；按坐标查询时为商铺列表及下一页游标
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current,
             @RequestParam(value = "x", required = false) Double x,
-            @RequestParam(value = "y", required = false) Double y
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        return shopService.queryShopByType(typeId, current, x, y);
+        return shopService.queryShopByType(typeId, current, x, y, cursor);
+    }
+
+    /**
+     * 附近商铺的多条件搜索
+     *
+     * @param query 商铺类型、坐标、半径、排序字段、评分和均价过滤条件、游标
+     * @return 商铺列表及下一页游标
+     */
+    @GetMapping("/search")
+    public Result searchShops(ShopSearchDTO query) {
+        return shopService.searchShops(query);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      *
-     * @param name    商铺名称关键字
-     * @param current 页码
-     * @return 商铺列表
+     * @param name   商铺名称关键字
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表及下一页游标
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, cursor);
+    }
+
+    /**
+     * 商铺名称联想词
+     *
+     * @param prefix 输入的关键字
+     * @return 名称包含关键字的商铺，以关键字开头的在前，其次按评分、销量排序
+     */
+    @GetMapping("/suggest")
+    public Result suggestShops(@RequestParam(value = "prefix", required = false) String prefix) {
+        return shopService.suggestShops(prefix);
     }
 }
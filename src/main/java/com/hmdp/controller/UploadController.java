@@ -1,31 +1,29 @@
 package com.hmdp.controller;
 
-import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ImageStore;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import javax.annotation.Resource;
 import java.io.IOException;
-import java.util.UUID;
+import java.io.InputStream;
 
 @Slf4j
 @RestController
 @RequestMapping("/upload")
 public class UploadController {
 
+    @Resource
+    private ImageStore imageStore;
+
     @PostMapping("/blog")
     public Result uploadImage(@RequestParam("file") MultipartFile image) {
-        try {
-            // 获取原始文件名称
-            String originalFilename = image.getOriginalFilename();
-            // 生成新文件名
-            String fileName = createNewFileName(originalFilename);
-            // 保存文件
-            image.transferTo(new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName));
+        try (InputStream in = image.getInputStream()) {
+            // 边读边计算摘要并保存文件，以内容摘要作为文件名，相同图片只保存一份
+            String fileName = imageStore.store(in, image.getOriginalFilename(), UserHolder.getUser().getId());
             // 返回结果
             log.debug("文件上传成功，{}", fileName);
             return Result.ok(fileName);
@@ -36,28 +34,26 @@ public class UploadController {
 
     @GetMapping("/blog/delete")
     public Result deleteBlogImg(@RequestParam("name") String filename) {
-        File file = new File(SystemConstants.IMAGE_UPLOAD_DIR, filename);
-        if (file.isDirectory()) {
+        // 只能删除 /blogs/ 下上传的图片
+        if (!imageStore.isImageName(filename)) {
             return Result.fail("错误的文件名称");
         }
-        FileUtil.del(file);
+        try {
+            // 图片可能被多篇笔记、多个用户引用，只减少当前用户的一次引用，所有引用都删除后才删除文件
+            imageStore.delete(filename, UserHolder.getUser().getId());
+        } catch (IOException e) {
+            throw new RuntimeException("文件删除失败", e);
+        }
         return Result.ok();
     }
 
-    private String createNewFileName(String originalFilename) {
-        // 获取后缀
-        String suffix = StrUtil.subAfter(originalFilename, ".", true);
-        // 生成目录
-        String name = UUID.randomUUID().toString();
-        int hash = name.hashCode();
-        int d1 = hash & 0xF;
-        int d2 = (hash >> 4) & 0xF;
-        // 判断目录是否存在
-        File dir = new File(SystemConstants.IMAGE_UPLOAD_DIR, StrUtil.format("/blogs/{}/{}", d1, d2));
-        if (!dir.exists()) {
-            dir.mkdirs();
-        }
-        // 生成文件名
-        return StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, name, suffix);
+    /**
+     * 上传统计
+     *
+     * @return 上传次数、字节数、吞吐量（MB/s）、去重次数及节省的字节数
+     */
+    @GetMapping("/stats")
+    public Result uploadStats() {
+        return Result.ok(imageStore.stats());
     }
 }
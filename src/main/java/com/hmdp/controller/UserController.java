@@ -11,10 +11,13 @@ import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.time.LocalDate;
 
 @Slf4j
 @RestController
@@ -31,8 +34,8 @@ public class UserController {
      * 发送手机验证码
      */
     @PostMapping("code")
-    public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
-        return userService.sendCode(phone, session);
+    public Result sendCode(@RequestParam("phone") String phone, HttpServletRequest request, HttpSession session) {
+        return userService.sendCode(phone, request.getRemoteAddr(), session);
     }
 
     /**
@@ -49,9 +52,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader(value = "authorization", required = false) String token){
+        return userService.logout(token);
     }
 
     /**
@@ -68,7 +70,7 @@ public class UserController {
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
         // 查询详情
-        UserInfo info = userInfoService.getById(userId);
+        UserInfo info = userInfoService.queryUserInfo(userId);
         if (info == null) {
             // 没有详情，应该是第一次查看详情
             return Result.ok();
@@ -100,4 +102,40 @@ public class UserController {
         return userService.signCount();
     }
 
+    /**
+     * 签到统计：每月和全年签到天数、当前连续和最长连续签到天数
+     */
+    @GetMapping("/sign/stats")
+    public Result signStats(@RequestParam(value = "year", required = false) Integer year) {
+        return userService.signStats(year);
+    }
+
+    /**
+     * 某一天的全站签到人数
+     */
+    @GetMapping("/sign/active/daily")
+    public Result signDailyActive(
+            @RequestParam(value = "date", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return userService.signDailyActive(date);
+    }
+
+    /**
+     * 某一天所在自然周的全站签到人数
+     */
+    @GetMapping("/sign/active/weekly")
+    public Result signWeeklyActive(
+            @RequestParam(value = "date", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return userService.signWeeklyActive(date);
+    }
+
+    /**
+     * 某一天签到用户之后每天的留存
+     */
+    @GetMapping("/sign/retention")
+    public Result signRetention(
+            @RequestParam("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(value = "days", required = false) Integer days) {
+        return userService.signRetention(date, days);
+    }
+
 }
@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class CursorResult {
+    private List<?> list;
+    /**
+     * 下一页的游标，为空表示没有下一页
+     */
+    private String cursor;
+    /**
+     * 是否只在部分数据中查询，例如附近商铺搜索只在最近的若干个商铺中排序；为空表示完整
+     */
+    private Boolean truncated;
+}
@@ -0,0 +1,37 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class ShopSearchDTO {
+    /**
+     * 商铺类型
+     */
+    private Long typeId;
+    /**
+     * 经纬度
+     */
+    private Double x;
+    private Double y;
+    /**
+     * 搜索半径（米），默认5000
+     */
+    private Double radius;
+    /**
+     * 排序字段：distance（默认，由近到远）、score（评分由高到低）、avgPrice（均价由低到高）、sold（销量由高到低）
+     */
+    private String sortBy;
+    /**
+     * 最低评分，与数据库一样乘10
+     */
+    private Integer minScore;
+    /**
+     * 均价范围
+     */
+    private Long minPrice;
+    private Long maxPrice;
+    /**
+     * 上一页返回的游标，第一页不传
+     */
+    private String cursor;
+}
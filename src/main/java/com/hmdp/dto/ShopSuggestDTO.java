@@ -0,0 +1,9 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class ShopSuggestDTO {
+    private Long id;
+    private String name;
+}
@@ -0,0 +1,26 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Data
+public class SignRetentionDTO {
+    /**
+     * 首日
+     */
+    private LocalDate date;
+    /**
+     * 首日签到人数
+     */
+    private Long cohort;
+    /**
+     * 之后第 1~N 天仍然签到的人数
+     */
+    private List<Long> retained;
+    /**
+     * 之后第 1~N 天的留存率
+     */
+    private List<Double> rates;
+}
@@ -0,0 +1,30 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class SignStatsDTO {
+    private Integer year;
+    /**
+     * 当年每个月的签到天数
+     */
+    private List<Integer> monthDays;
+    /**
+     * 当年的签到总天数
+     */
+    private Integer yearDays;
+    /**
+     * 当前连续签到天数，截止今天或昨天
+     */
+    private Integer currentStreak;
+    /**
+     * 当年最长连续签到天数
+     */
+    private Integer yearLongestStreak;
+    /**
+     * 历史最长连续签到天数
+     */
+    private Integer longestStreak;
+}
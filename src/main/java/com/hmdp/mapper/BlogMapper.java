@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +16,17 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 批量累加点赞数 UPDATE tb_blog SET liked = CASE id WHEN ? THEN liked + ? ... END WHERE id IN (...)
+     *
+     * @param deltas 笔记id -> 点赞数增量
+     */
+    int incrLikedBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 批量累加评论数 UPDATE tb_blog SET comments = CASE id WHEN ? THEN comments + ? ... END WHERE id IN (...)
+     *
+     * @param deltas 笔记id -> 评论数增量
+     */
+    int incrCommentsBatch(@Param("deltas") Map<Long, Long> deltas);
 }
@@ -0,0 +1,29 @@
+package com.hmdp.mapper;
+
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ *  计数增量刷入记录 Mapper 接口
+ * </p>
+ */
+public interface CounterFlushMapper {
+
+    /**
+     * 记录已写入的批次 INSERT IGNORE INTO tb_counter_flush (batch_id) VALUES (?)
+     *
+     * @param batchId 批次id
+     * @return 1：首次写入；0：批次已经写入过
+     */
+    int insertIgnore(@Param("batchId") String batchId);
+
+    /**
+     * 删除早于指定时间的记录
+     *
+     * @param before 时间
+     * @return 删除的记录数
+     */
+    int deleteBefore(@Param("before") LocalDateTime before);
+}
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,13 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface FollowMapper extends BaseMapper<Follow> {
 
+    /**
+     * 批量新增关注关系，已存在的忽略 INSERT IGNORE INTO tb_follow (user_id, follow_user_id) VALUES (?, ?), ...
+     */
+    int insertIgnoreBatch(@Param("follows") List<Follow> follows);
+
+    /**
+     * 批量删除关注关系 DELETE FROM tb_follow WHERE (user_id, follow_user_id) IN ((?, ?), ...)
+     */
+    int deleteBatch(@Param("follows") List<Follow> follows);
 }
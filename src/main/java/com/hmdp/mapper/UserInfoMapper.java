@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +16,19 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserInfoMapper extends BaseMapper<UserInfo> {
 
+    /**
+     * 批量累加粉丝数，用户详情不存在时新增
+     * INSERT INTO tb_user_info (user_id, fans) VALUES ... ON DUPLICATE KEY UPDATE fans = fans + ?
+     *
+     * @param deltas 用户id -> 粉丝数增量
+     */
+    int incrFansBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 批量累加关注数，用户详情不存在时新增
+     * INSERT INTO tb_user_info (user_id, followee) VALUES ... ON DUPLICATE KEY UPDATE followee = followee + ?
+     *
+     * @param deltas 用户id -> 关注数增量
+     */
+    int incrFolloweeBatch(@Param("deltas") Map<Long, Long> deltas);
 }
@@ -10,5 +10,9 @@ public interface IFollowService extends IService<Follow> {
 
     Result isFollow(Long followUserId);
 
-    Result followCommons(Long id);
+    Result followCommons(Long id, String cursor);
+
+    Result countCommons(Long id);
+
+    Result recommend();
 }
@@ -1,6 +1,7 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopSearchDTO;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -18,5 +19,15 @@ public interface IShopService extends IService<Shop> {
 
     Result update(Shop shop);
 
-    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+    Result saveShop(Shop shop);
+
+    Result deleteShop(Long id);
+
+    Result searchShops(ShopSearchDTO query);
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String cursor);
+
+    Result queryShopByName(String name, String cursor);
+
+    Result suggestShops(String prefix);
 }
@@ -3,9 +3,13 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -17,11 +21,23 @@ import javax.servlet.http.HttpSession;
  */
 public interface IUserService extends IService<User> {
 
-    Result sendCode(String phone, HttpSession session);
+    Result sendCode(String phone, String ip, HttpSession session);
 
     Result login(LoginFormDTO loginForm, HttpSession session);
 
+    Result logout(String token);
+
     Result sign();
 
     Result signCount();
+
+    Result signStats(Integer year);
+
+    Result signDailyActive(LocalDate date);
+
+    Result signWeeklyActive(LocalDate date);
+
+    Result signRetention(LocalDate date, Integer days);
+
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
 }
@@ -1,11 +1,46 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.lang.Pair;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
+import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanker;
+import com.hmdp.utils.BufferedCounter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CounterFlushLog;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +52,229 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private CounterFlushLog counterFlushLog;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private BlogHotRanker blogHotRanker;
+
+    @Resource
+    private IUserService userService;
+
+    // 评论数增量
+    private BufferedCounter commentsCounter;
+
+    private static final DefaultRedisScript<Long> COMMENT_ADD_SCRIPT;
+    static {
+        COMMENT_ADD_SCRIPT = new DefaultRedisScript<>();
+        COMMENT_ADD_SCRIPT.setLocation(new ClassPathResource("comment_add.lua"));
+        COMMENT_ADD_SCRIPT.setResultType(Long.class);
+    }
+
+    // 评论内容的最大长度，与 tb_blog_comments.content 一致
+    private static final int MAX_CONTENT_LENGTH = 255;
+
+    @PostConstruct
+    private void init() {
+        commentsCounter = new BufferedCounter(BLOG_COMMENTS_PENDING_KEY, stringRedisTemplate, redissonClient, counterFlushLog);
+    }
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        // 1.校验评论内容
+        if (StrUtil.isBlank(comment.getContent())) {
+            return Result.fail("评论内容不能为空！");
+        }
+        if (comment.getContent().length() > MAX_CONTENT_LENGTH) {
+            return Result.fail("评论内容过长！");
+        }
+        // 2.校验笔记是否存在
+        Long blogId = comment.getBlogId();
+        Blog blog = blogId == null ? null :
+                cacheClient.queryWithPassThrough(CACHE_BLOG_KEY, blogId, Blog.class, blogMapper::selectById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        if (blog == null) {
+            return Result.fail("笔记不存在！");
+        }
+        // 3.回复评论时，只保留两级结构：parentId 指向一级评论，answerId 指向被回复的评论
+        if (comment.getParentId() == null || comment.getParentId() == 0) {
+            comment.setParentId(0L).setAnswerId(0L);
+        } else {
+            BlogComments answer = getById(comment.getParentId());
+            if (answer == null || !blogId.equals(answer.getBlogId())) {
+                return Result.fail("回复的评论不存在！");
+            }
+            comment.setParentId(answer.getParentId() == 0 ? answer.getId() : answer.getParentId())
+                    .setAnswerId(answer.getId());
+        }
+        // 4.保存评论
+        comment.setId(null)
+                .setUserId(UserHolder.getUser().getId())
+                .setLiked(0)
+                .setStatus(false)
+                .setCreateTime(null)
+                .setUpdateTime(null);
+        boolean success = save(comment);
+        if (!success) {
+            return Result.fail("评论失败！");
+        }
+        // 5.一级评论加入最近评论窗口，与加载窗口互斥：加载时读不到这条评论的，一定在窗口写入后才执行脚本
+        if (comment.getParentId() == 0) {
+            RLock lock = redissonClient.getLock(LOCK_BLOG_COMMENTS_KEY + blogId);
+            lock.lock();
+            try {
+                stringRedisTemplate.execute(
+                        COMMENT_ADD_SCRIPT,
+                        Collections.singletonList(BLOG_COMMENTS_KEY + blogId),
+                        comment.getId().toString(), String.valueOf(BLOG_COMMENTS_WINDOW_SIZE)
+                );
+            } finally {
+                lock.unlock();
+            }
+        }
+        // 6.累加评论数增量，由定时任务异步刷入数据库，并更新热度排行榜
+        commentsCounter.incr(blogId, 1);
+        blogHotRanker.incr(blogId, BlogHotRanker.COMMENT_WEIGHT);
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryCommentsOfBlog(Long blogId, String cursor) {
+        // 1.解析游标，评论id自增，按id倒序分页
+        Pair<LocalDateTime, Long> last = CursorUtils.decode(cursor);
+        double max = last == null ? Double.POSITIVE_INFINITY : last.getValue() - 1;
+        int pageSize = SystemConstants.MAX_PAGE_SIZE;
+        // 2.从最近评论窗口中查询 pageSize + 1 条 ZREVRANGEBYSCORE key max 1 LIMIT 0 pageSize+1
+        String key = BLOG_COMMENTS_KEY + blogId;
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            loadCommentWindow(blogId);
+        }
+        Set<String> idSet = stringRedisTemplate.opsForZSet().reverseRangeByScore(key, 1, max, 0, pageSize + 1);
+        List<BlogComments> comments;
+        if ((idSet == null || idSet.size() <= pageSize) && isWindowFull(key)) {
+            // 3.窗口中只有最新的评论，更早的评论查询数据库
+            comments = query()
+                    .eq("blog_id", blogId)
+                    .eq("parent_id", 0)
+                    .le(last != null, "id", (long) max)
+                    .and(w -> w.isNull("status").or().eq("status", 0))
+                    .orderByDesc("id")
+                    .last("LIMIT " + (pageSize + 1))
+                    .list();
+        } else {
+            // 4.评论内容发布后不变，MGET 读取缓存，未命中的才查询数据库
+            List<Long> ids = idSet == null ? Collections.emptyList() :
+                    idSet.stream().map(Long::valueOf).collect(Collectors.toList());
+            comments = queryComments(ids);
+        }
+        // 5.查询评论有关用户，封装结果
+        queryCommentUser(comments);
+        return Result.ok(CursorUtils.page(comments, pageSize, BlogComments::getCreateTime, BlogComments::getId));
+    }
+
+    @Override
+    public Result queryReplies(Long parentId, String cursor) {
+        // 1.解析游标，回复按时间正序展示
+        Pair<LocalDateTime, Long> last = CursorUtils.decode(cursor);
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        // 2.查询 pageSize + 1 条，走 (parent_id, id) 索引
+        List<BlogComments> replies = query()
+                .eq("parent_id", parentId)
+                .gt(last != null, "id", last == null ? null : last.getValue())
+                .and(w -> w.isNull("status").or().eq("status", 0))
+                .orderByAsc("id")
+                .last("LIMIT " + (pageSize + 1))
+                .list();
+        // 3.查询回复有关用户，封装结果
+        queryCommentUser(replies);
+        return Result.ok(CursorUtils.page(replies, pageSize, BlogComments::getCreateTime, BlogComments::getId));
+    }
+
+    @Override
+    public Map<Long, Long> pendingComments(Collection<Long> blogIds) {
+        return commentsCounter.pending(blogIds);
+    }
+
+    // 定时把评论数增量批量刷入数据库
+    @Scheduled(fixedDelay = 5000)
+    public void flushComments() {
+        commentsCounter.flush(deltas -> {
+            blogMapper.incrCommentsBatch(deltas);
+            // 数据库中的评论数已变化，删除这一批笔记的缓存
+            stringRedisTemplate.delete(deltas.keySet().stream().map(id -> CACHE_BLOG_KEY + id).collect(Collectors.toList()));
+        });
+    }
+
+    // 从数据库加载最新的一级评论id到窗口中，没有评论时写入占位成员 0，避免反复查询数据库
+    // 与新增评论互斥，加锁后再次判断窗口是否存在，避免并发加载或加载期间新增的评论丢失
+    private void loadCommentWindow(Long blogId) {
+        String key = BLOG_COMMENTS_KEY + blogId;
+        RLock lock = redissonClient.getLock(LOCK_BLOG_COMMENTS_KEY + blogId);
+        lock.lock();
+        try {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                return;
+            }
+            writeCommentWindow(blogId, key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeCommentWindow(Long blogId, String key) {
+        List<BlogComments> comments = query()
+                .select("id")
+                .eq("blog_id", blogId)
+                .eq("parent_id", 0)
+                .and(w -> w.isNull("status").or().eq("status", 0))
+                .orderByDesc("id")
+                .last("LIMIT " + BLOG_COMMENTS_WINDOW_SIZE)
+                .list();
+        Set<ZSetOperations.TypedTuple<String>> tuples = comments.stream()
+                .map(comment -> new DefaultTypedTuple<>(comment.getId().toString(), comment.getId().doubleValue()))
+                .collect(Collectors.toSet());
+        if (tuples.isEmpty()) {
+            tuples = Collections.singleton(new DefaultTypedTuple<>("0", 0D));
+        }
+        stringRedisTemplate.opsForZSet().add(key, tuples);
+        stringRedisTemplate.expire(key, BLOG_COMMENTS_TTL, TimeUnit.MINUTES);
+    }
+
+    // 窗口已满说明数据库中可能还有更早的评论
+    private boolean isWindowFull(String key) {
+        Long size = stringRedisTemplate.opsForZSet().zCard(key);
+        return size != null && size >= BLOG_COMMENTS_WINDOW_SIZE;
+    }
+
+    // 根据id批量查询评论，按id的顺序返回
+    private List<BlogComments> queryComments(List<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(CACHE_COMMENT_KEY, ids, BlogComments.class, this::listByIds,
+                BlogComments::getId, CACHE_COMMENT_TTL, TimeUnit.MINUTES);
+    }
+
+    // 批量查询评论有关用户
+    private void queryCommentUser(List<BlogComments> comments) {
+        if (comments.isEmpty()) {
+            return;
+        }
+        Map<Long, UserDTO> userMap = userService.queryUserDTOs(comments.stream().map(BlogComments::getUserId).collect(Collectors.toList()));
+        for (BlogComments comment : comments) {
+            UserDTO user = userMap.get(comment.getUserId());
+            if (user != null) {
+                comment.setName(user.getNickName());
+                comment.setIcon(user.getIcon());
+            }
+        }
+    }
 }
@@ -1,36 +1,64 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.Pair;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
+import com.hmdp.service.IBlogCommentsService;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanker;
+import com.hmdp.utils.BufferedCounter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CounterFlushLog;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.FollowGraph;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
@@ -41,28 +69,158 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private IFollowService followService;
+    private FollowGraph followGraph;
+
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    @Resource
+    private BlogHotRanker blogHotRanker;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private CounterFlushLog counterFlushLog;
+
+    // 点赞数增量
+    private BufferedCounter likedCounter;
+
+    // 关注推送每页的笔记数
+    @Value("${hmdp.feed.page-size:2}")
+    private int feedPageSize;
+
+    // 是否异步预热下一页笔记缓存
+    @Value("${hmdp.feed.prefetch:true}")
+    private boolean feedPrefetch;
+
+    // 推送笔记时每批处理的粉丝数
+    private static final int FEED_PUSH_BATCH_SIZE = 500;
+
+    // 预热下一页的线程池，队列满时直接丢弃，预热失败不影响正常查询
+    private static final ExecutorService FEED_PREFETCH_EXECUTOR = new ThreadPoolExecutor(
+            2, 2, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(100), new ThreadPoolExecutor.DiscardPolicy());
+
+    private static final DefaultRedisScript<List> LIKE_SCRIPT;
+    private static final DefaultRedisScript<Long> LIKED_CHECK_SCRIPT;
+    private static final DefaultRedisScript<Long> LIKED_ADD_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(List.class);
+        LIKED_CHECK_SCRIPT = new DefaultRedisScript<>();
+        LIKED_CHECK_SCRIPT.setLocation(new ClassPathResource("liked_check.lua"));
+        LIKED_CHECK_SCRIPT.setResultType(Long.class);
+        LIKED_ADD_SCRIPT = new DefaultRedisScript<>();
+        LIKED_ADD_SCRIPT.setLocation(new ClassPathResource("liked_add.lua"));
+        LIKED_ADD_SCRIPT.setResultType(Long.class);
+    }
+
+    @PostConstruct
+    private void init() {
+        likedCounter = new BufferedCounter(BLOG_LIKED_PENDING_KEY, stringRedisTemplate, redissonClient, counterFlushLog);
+    }
+
+    /**
+     * 把旧版本的点赞用户zset（blog:liked:{blogId}）迁移为点赞用户分片和点赞用户窗口
+     * <p>
+     * 启动1分钟后执行，之后每小时检查一次，迁移完成后只读取一次标记；多个节点只需要一个执行
+     */
+    @Scheduled(fixedDelay = 60 * 60 * 1000, initialDelay = 60 * 1000)
+    public void migrateLikedZSets() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKED_MIGRATED_KEY))) {
+            return;
+        }
+        RLock lock = redissonClient.getLock("lock:" + BLOG_LIKED_MIGRATED_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        ScanOptions options = ScanOptions.scanOptions().match(BLOG_LIKED_KEY + "*").count(1000).build();
+        try (Cursor<byte[]> keys = stringRedisTemplate.executeWithStickyConnection(connection -> connection.scan(options))) {
+            while (keys != null && keys.hasNext()) {
+                String key = new String(keys.next(), StandardCharsets.UTF_8);
+                String blogId = key.substring(BLOG_LIKED_KEY.length());
+                if (!StrUtil.isNumeric(blogId) || DataType.ZSET != stringRedisTemplate.type(key)) {
+                    continue;
+                }
+                // 1.逐批按分片写入点赞用户
+                try (Cursor<ZSetOperations.TypedTuple<String>> members = stringRedisTemplate.opsForZSet().scan(key, ScanOptions.scanOptions().count(1000).build())) {
+                    Map<String, List<String>> shards = new HashMap<>();
+                    while (members.hasNext()) {
+                        Long userId = Long.valueOf(members.next().getValue());
+                        shards.computeIfAbsent(likedKey(Long.valueOf(blogId), userId), k -> new ArrayList<>())
+                                .add(String.valueOf(likedOffset(userId)));
+                        if (shards.size() >= 1000) {
+                            shards.forEach(this::addLiked);
+                            shards.clear();
+                        }
+                    }
+                    shards.forEach(this::addLiked);
+                }
+                // 2.保留最早和最近的点赞用户
+                Set<ZSetOperations.TypedTuple<String>> likers = new HashSet<>();
+                likers.addAll(stringRedisTemplate.opsForZSet().rangeWithScores(key, 0, BLOG_LIKERS_WINDOW_SIZE - 1));
+                likers.addAll(stringRedisTemplate.opsForZSet().reverseRangeWithScores(key, 0, BLOG_LIKERS_WINDOW_SIZE - 1));
+                if (!likers.isEmpty()) {
+                    stringRedisTemplate.opsForZSet().add(BLOG_LIKERS_KEY + blogId, likers);
+                }
+                // 3.删除旧zset
+                stringRedisTemplate.unlink(key);
+            }
+            stringRedisTemplate.opsForValue().set(BLOG_LIKED_MIGRATED_KEY, "1");
+            log.info("点赞用户zset迁移完成");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 向一个点赞用户分片写入一批偏移量，超过上限时由脚本转为位图
+    private void addLiked(String likedKey, List<String> offsets) {
+        List<String> args = new ArrayList<>(offsets.size() + 1);
+        args.add(String.valueOf(BLOG_LIKED_SET_MAX));
+        args.addAll(offsets);
+        stringRedisTemplate.execute(LIKED_ADD_SCRIPT, Collections.singletonList(likedKey), args.toArray());
+    }
 
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
-        return Result.ok(records);
+        // 1.第一页访问量最大，优先读取短时缓存
+        List<Blog> blogs = null;
+        if (current == 1) {
+            String json = stringRedisTemplate.opsForValue().get(CACHE_BLOG_HOT_KEY);
+            if (StrUtil.isNotBlank(json)) {
+                blogs = JSONUtil.toList(json, Blog.class);
+            }
+        }
+        if (blogs == null) {
+            // 2.从热度排行榜中分页查询笔记id ZREVRANGE blog:hot from end
+            long from = (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+            Set<String> idSet = blogHotRanker.range(from, from + SystemConstants.MAX_PAGE_SIZE - 1);
+            if (idSet == null || idSet.isEmpty()) {
+                return Result.ok(Collections.emptyList());
+            }
+            // 3.批量查询笔记及作者，并保持排行榜中的顺序
+            List<Long> ids = idSet.stream().map(Long::valueOf).collect(Collectors.toList());
+            blogs = queryBlogs(ids);
+            queryBlogUser(blogs);
+            // 4.缓存第一页
+            if (current == 1) {
+                cacheClient.set(CACHE_BLOG_HOT_KEY, blogs, CACHE_BLOG_HOT_TTL, TimeUnit.SECONDS);
+            }
+        }
+        // 5.查询当前用户是否点赞，并叠加尚未刷入数据库的点赞数、评论数
+        blogs.forEach(this::isBlogLiked);
+        fillBlogCounts(blogs);
+        return Result.ok(blogs);
     }
 
     @Override
     public Result queryBlogById(Long id) {
-        // 1.查询blog
-        Blog blog = getById(id);
+        // 1.查询blog，笔记发布后内容不变，优先读取缓存
+        Blog blog = cacheClient.queryWithPassThrough(CACHE_BLOG_KEY, id, Blog.class, this::getById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
         if (blog == null) {
             return Result.fail("笔记不存在！");
         }
@@ -70,16 +228,34 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         queryBlogUser(blog);
         // 3.查询blog是否被点赞
         isBlogLiked(blog);
+        // 4.叠加尚未刷入数据库的点赞数、评论数
+        fillBlogCounts(Collections.singletonList(blog));
 
         return Result.ok(blog);
     }
 
-    // blog是否被点赞
+    // blog是否被点赞，分片为位图时 GETBIT，为set时 SISMEMBER
     private void isBlogLiked(Blog blog) {
-        Long userId = UserHolder.getUser().getId();
-        String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            // 用户未登录，无需查询是否点赞
+            blog.setIsLike(false);
+            return;
+        }
+        Long userId = user.getId();
+        Long isLike = stringRedisTemplate.execute(
+                LIKED_CHECK_SCRIPT, Collections.singletonList(likedKey(blog.getId(), userId)), String.valueOf(likedOffset(userId)));
+        blog.setIsLike(Long.valueOf(1).equals(isLike));
+    }
+
+    // 点赞用户按用户id区间分片，每个分片 2^BLOG_LIKED_SHARD_BITS 个用户：
+    // 点赞用户不超过 BLOG_LIKED_SET_MAX 个时保存为偏移量set（intset，每个成员2字节），超过后转为位图（128字节）
+    private static String likedKey(Long blogId, Long userId) {
+        return BLOG_LIKED_KEY + blogId + ":" + (userId >>> BLOG_LIKED_SHARD_BITS);
+    }
+
+    private static long likedOffset(Long userId) {
+        return userId & ((1L << BLOG_LIKED_SHARD_BITS) - 1);
     }
 
     // 用户点赞
@@ -87,33 +263,71 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result likeBlog(Long id) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        // 3.如果未点赞，可以点赞
-        if (score == null) {
-            // 3.1 数据库点赞数+1
-            boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-            // 3.2 保存用户到Redis的set集合
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+        // 2.查询数据库中已刷入的点赞数
+        Blog blog = query().select("id", "liked").eq("id", id).one();
+        if (blog == null) {
+            return Result.fail("笔记不存在！");
+        }
+        // 3.执行lua脚本，一次调用原子地切换点赞状态、累加点赞数增量，由定时任务异步刷入数据库
+        List<Long> result = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(likedKey(id, userId), BLOG_LIKERS_KEY + id, likedCounter.getPendingKey(), likedCounter.getFlushingKey()),
+                id.toString(), userId.toString(), String.valueOf(likedOffset(userId)),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(BLOG_LIKERS_WINDOW_SIZE),
+                String.valueOf(BLOG_LIKED_SET_MAX)
+        );
+        if (result == null || result.size() < 3) {
+            return Result.fail("点赞失败！");
+        }
+        boolean isLike = result.get(0) == 1;
+        // 4.更新热度排行榜，取消点赞时扣减这次点赞当时增加的热度；点赞时间已不在窗口中时不扣减
+        if (isLike) {
+            blogHotRanker.incr(id, BlogHotRanker.LIKE_WEIGHT);
+        } else if (result.get(2) > 0) {
+            blogHotRanker.incr(id, -BlogHotRanker.LIKE_WEIGHT, result.get(2));
+        }
+        // 5.返回新的点赞状态和点赞数
+        int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+        blog.setIsLike(isLike).setLiked((int) Math.max(liked + result.get(1), 0));
+        return Result.ok(blog);
+    }
+
+    // 定时把点赞数增量批量刷入数据库
+    @Scheduled(fixedDelay = 5000)
+    public void flushLiked() {
+        likedCounter.flush(deltas -> {
+            getBaseMapper().incrLikedBatch(deltas);
+            // 数据库中的点赞数已变化，删除这一批笔记的缓存
+            stringRedisTemplate.delete(deltas.keySet().stream().map(id -> CACHE_BLOG_KEY + id).collect(Collectors.toList()));
+        });
+    }
+
+    // 把尚未刷入数据库的点赞数、评论数叠加到blog上
+    private void fillBlogCounts(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Long> ids = blogs.stream().map(Blog::getId).collect(Collectors.toList());
+        Map<Long, Long> likedDeltas = likedCounter.pending(ids);
+        Map<Long, Long> commentsDeltas = blogCommentsService.pendingComments(ids);
+        for (Blog blog : blogs) {
+            Long delta = likedDeltas.get(blog.getId());
+            if (delta != null) {
+                int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                blog.setLiked((int) Math.max(liked + delta, 0));
             }
-        } else {
-            // 4.如果已点赞，取消点赞
-            // 4.1 数据库点赞数-1
-            boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
-            // 4.2 把用户从Redis的set集合移除
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+            delta = commentsDeltas.get(blog.getId());
+            if (delta != null) {
+                int comments = blog.getComments() == null ? 0 : blog.getComments();
+                blog.setComments((int) Math.max(comments + delta, 0));
             }
         }
-        return Result.ok();
     }
 
     // 查询blog的所有点赞
     @Override
     public Result queryBlogLikes(Long id) {
-        String key = BLOG_LIKED_KEY + id;
+        String key = BLOG_LIKERS_KEY + id;
         // 1.查询top5的点赞用户 zrange key 0 4
         Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
         if (top5 == null || top5.isEmpty()) {
@@ -142,16 +356,20 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!success) {
             return Result.fail("新增笔记失败！");
         }
-        // 3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        // 4. 推送笔记id给所有粉丝
-        for (Follow follow : follows) {
-            // 4.1 获取粉丝id
-            Long userId = follow.getUserId();
-            // 4.2 推送
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
+        // 加入热度排行榜
+        blogHotRanker.incr(blog.getId(), BlogHotRanker.PUBLISH_WEIGHT);
+        // 3.分批遍历笔记作者的粉丝 SSCAN followers:{userId}，推送笔记id给所有粉丝
+        String blogId = blog.getId().toString();
+        long now = System.currentTimeMillis();
+        followGraph.scanFollowers(user.getId(), FEED_PUSH_BATCH_SIZE, followerIds ->
+                // 4.每批粉丝一次管道推送
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Long followerId : followerIds) {
+                        conn.zAdd(FEED_KEY + followerId, now, blogId);
+                    }
+                    return null;
+                }));
         // 5.返回id
         return Result.ok(blog.getId());
     }
@@ -163,18 +381,18 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 2.查询收件箱 ZREVRANGEBYSCORE key Max Min LIMIT offset count
         String key = FEED_KEY + userId;
         Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
+                .reverseRangeByScoreWithScores(key, 0, max, offset, feedPageSize);
         // 3.非空判断
         if (typedTuples == null || typedTuples.isEmpty()) {
             return Result.ok();
         }
         // 4.解析数据：blogId、minTime(时间戳)、offset
-        ArrayList<Object> ids = new ArrayList<>(typedTuples.size());
+        List<Long> ids = new ArrayList<>(typedTuples.size());
         long minTime = 0;
         int new_offset = 1;
         for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {
             // 4.1 获取id
-            ids.add(tuple.getValue());
+            ids.add(Long.valueOf(tuple.getValue()));
             // 4.2 获取分数(时间戳)
             long time = tuple.getScore().longValue();
             if (time == minTime) {
@@ -184,17 +402,19 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 new_offset = 1;
             }
         }
-        // 5.根据id查询Blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id, " + idStr + ")").list();
-        for (Blog blog : blogs) {
-            // 5.1 查看blog有关用户
-            queryBlogUser(blog);
-            // 5.2 查询blog是否被点赞
-            isBlogLiked(blog);
+        // 5.预热下一页的笔记缓存，客户端渲染当前页时完成
+        if (feedPrefetch && ids.size() == feedPageSize) {
+            prefetchBlogOfFollow(key, minTime, new_offset);
         }
+        // 6.根据id批量查询Blog，MGET 读取缓存，未命中的才查询数据库
+        List<Blog> blogs = queryBlogs(ids);
+        // 6.1 查看blog有关用户
+        queryBlogUser(blogs);
+        // 6.2 查询blog是否被点赞
+        blogs.forEach(this::isBlogLiked);
+        fillBlogCounts(blogs);
 
-        // 6.结果封装并返回
+        // 7.结果封装并返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
         r.setOffset(new_offset);
@@ -203,10 +423,58 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(r);
     }
 
+    // 异步把下一页的笔记加载到缓存中
+    private void prefetchBlogOfFollow(String key, long max, int offset) {
+        FEED_PREFETCH_EXECUTOR.execute(() -> {
+            try {
+                Set<String> next = stringRedisTemplate.opsForZSet().reverseRangeByScore(key, 0, max, offset, feedPageSize);
+                if (next != null && !next.isEmpty()) {
+                    queryBlogs(next.stream().map(Long::valueOf).collect(Collectors.toList()));
+                }
+            } catch (Exception e) {
+                log.error("预热关注推送下一页失败", e);
+            }
+        });
+    }
+
+    // 根据id批量查询笔记，按id的顺序返回
+    private List<Blog> queryBlogs(List<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(CACHE_BLOG_KEY, ids, Blog.class, this::listByIds, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public Result queryBlogOfUser(Long userId, String cursor) {
+        // 1.解析游标，按 (create_time, id) 键集分页，不再执行 COUNT 和 LIMIT offset
+        Pair<LocalDateTime, Long> last = CursorUtils.decode(cursor);
+        // 2.查询 pageSize + 1 条，多出的一条用来判断是否有下一页
+        List<Blog> blogs = query()
+                .eq("user_id", userId)
+                .and(last != null, w -> w.lt("create_time", last.getKey())
+                        .or(o -> o.eq("create_time", last.getKey()).lt("id", last.getValue())))
+                .orderByDesc("create_time", "id")
+                .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        // 3.叠加尚未刷入数据库的点赞数、评论数，封装结果
+        fillBlogCounts(blogs);
+        return Result.ok(CursorUtils.page(blogs, SystemConstants.MAX_PAGE_SIZE, Blog::getCreateTime, Blog::getId));
+    }
+
     public void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+        queryBlogUser(Collections.singletonList(blog));
+    }
+
+    // 批量查询blog有关用户，避免逐条查询，用户的昵称和头像缓存在Redis中
+    private void queryBlogUser(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Map<Long, UserDTO> userMap = userService.queryUserDTOs(blogs.stream().map(Blog::getUserId).collect(Collectors.toList()));
+        for (Blog blog : blogs) {
+            UserDTO user = userMap.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 }
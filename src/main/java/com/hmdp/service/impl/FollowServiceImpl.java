@@ -1,7 +1,8 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import cn.hutool.core.lang.Pair;
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
@@ -9,54 +10,40 @@ import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.FollowGraph;
+import com.hmdp.utils.FriendRecommender;
+import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 
-import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.FOLLOW_USER_KEY;
-
 
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private IUserService userService;
 
     @Resource
-    private IUserService userService;
+    private FollowGraph followGraph;
+
+    @Resource
+    private FriendRecommender friendRecommender;
 
     // 关注和取关功能
     @Override
     public Result follow(Long followUserId, Boolean isFollow) {
-        Long userId = UserHolder.getUser().getId();
-        String key = FOLLOW_USER_KEY + userId;  // userId是当前用户
-        // 1、判断是关注还是取关
-        if (isFollow) {
-            // 2、关注，新增数据
-            Follow follow = new Follow();
-            follow.setUserId(userId);
-            follow.setFollowUserId(followUserId);  // 关注的用户
-            boolean success = save(follow);
-            if (success) {
-                // 把关注用户的id，放入redis的set集合
-                stringRedisTemplate.opsForSet().add(key, followUserId.toString());
-            }
-        } else {
-            // 3、取关，删除delete from tb_follow where user_id = ? and follow_user_id = ?
-            boolean success = remove(new QueryWrapper<Follow>()
-                    .eq("user_id", userId).eq("follow_user_id", followUserId)
-            );
-            if (success) {
-                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
-            }
+        Long userId = UserHolder.getUser().getId();  // userId是当前用户
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己！");
         }
+        // 只修改Redis中的关注集合和粉丝集合，由定时任务批量写入数据库
+        followGraph.follow(userId, followUserId, BooleanUtil.isTrue(isFollow));
         return Result.ok();
     }
 
@@ -64,25 +51,41 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     @Override
     public Result isFollow(Long followUserId) {
         Long userId = UserHolder.getUser().getId();
-        // 查询是否关注 select * from tb_follow where user_id = ? and follow_user_id = ?
-        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
-        // 判断
-        return Result.ok(count > 0);
+        // 查询是否关注 SISMEMBER follows:{userId} followUserId
+        return Result.ok(followGraph.isFollowing(userId, followUserId));
     }
 
-    // 查询共同关注
+    // 分页查询共同关注
     @Override
-    public Result followCommons(Long id) {
+    public Result followCommons(Long id, String cursor) {
         Long userId = UserHolder.getUser().getId();
-        String key1 = FOLLOW_USER_KEY + userId;
-        String key2 = FOLLOW_USER_KEY + id;
-        // 求交集
-        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key1, key2);
-        if (intersect == null || intersect.isEmpty()) {
-            return Result.ok(Collections.emptyList());
-        }
-        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        List<UserDTO> userDTOS = userService.listByIds(ids).stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList());
+        // 1.遍历较小的关注集合，探测较大的集合，不再对两个完整集合求交集
+        Pair<String, List<Long>> page = followGraph.commonFollows(userId, id, cursor, SystemConstants.DEFAULT_PAGE_SIZE);
+        // 2.只查询本页的用户，读取缓存
+        List<Long> ids = page.getValue();
+        Map<Long, UserDTO> userMap = userService.queryUserDTOs(ids);
+        List<UserDTO> userDTOS = ids.stream().map(userMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+        // 3.封装结果，本页为空但游标不为空时可以继续翻页
+        CursorResult r = new CursorResult();
+        r.setList(userDTOS);
+        r.setCursor(page.getKey());
+        return Result.ok(r);
+    }
+
+    // 查询共同关注数量
+    @Override
+    public Result countCommons(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(followGraph.countCommonFollows(userId, id));
+    }
+
+    // 可能认识的人，读取定时任务预先计算的结果
+    @Override
+    public Result recommend() {
+        Long userId = UserHolder.getUser().getId();
+        List<Long> ids = friendRecommender.recommend(userId, SystemConstants.MAX_PAGE_SIZE);
+        Map<Long, UserDTO> userMap = userService.queryUserDTOs(ids);
+        List<UserDTO> userDTOS = ids.stream().map(userMap::get).filter(Objects::nonNull).collect(Collectors.toList());
         return Result.ok(userDTOS);
     }
 }
@@ -2,23 +2,35 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.lang.Pair;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopSearchDTO;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.GeoUtils;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopIndexSync;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopSearchEngine;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.ReactiveGeoCommands;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
@@ -44,6 +56,18 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopSearchEngine shopSearchEngine;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private ShopIndexSync shopIndexSync;
+
     /**
      * 根据id查询商铺信息 并存入缓存
      *
@@ -284,15 +308,109 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail(String.format("id为%s的商铺不存在!", id));
         }
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail(String.format("id为%s的商铺不存在!", id));
+        }
         updateById(shop);
 
         // 2、删除缓存
         stringRedisTemplate.delete(CACHE_SHOP_KEY + id.toString());
+
+        // 3、事务提交后同步GEO和内存索引，请求中可能只有部分字段，重新查询完整的类型和坐标
+        shopIndexSync.onSaved(getById(id), old.getTypeId());
         return Result.ok();
     }
 
+    /**
+     * 新增商铺，事务提交后同步GEO和内存索引
+     *
+     * @param shop
+     * @return 商铺id
+     */
+    @Transactional
+    @Override
+    public Result saveShop(Shop shop) {
+        save(shop);
+        // 创建时间由数据库生成，重新查询完整的商铺
+        shopIndexSync.onSaved(getById(shop.getId()), null);
+        return Result.ok(shop.getId());
+    }
+
+    /**
+     * 删除商铺及缓存，事务提交后从GEO和内存索引中删除；没有对外的接口，供后台管理等内部调用
+     *
+     * @param id
+     * @return
+     */
+    @Transactional
+    @Override
+    public Result deleteShop(Long id) {
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail(String.format("id为%s的商铺不存在!", id));
+        }
+        removeById(id);
+        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        shopIndexSync.onDeleted(id, old.getTypeId());
+        return Result.ok();
+    }
+
+    /**
+     * 附近商铺的多条件搜索：半径内按距离、评分、均价或销量排序，支持评分和均价过滤，游标分页
+     *
+     * @param query
+     * @return 商铺列表及下一页游标，半径内的商铺超过候选上限时 truncated 为 true
+     */
+    @Override
+    public Result searchShops(ShopSearchDTO query) {
+        if (query.getTypeId() == null || query.getX() == null || query.getY() == null) {
+            return Result.fail("商铺类型和坐标不能为空！");
+        }
+        ShopSearchEngine.SortKey sortKey = ShopSearchEngine.SortKey.of(query.getSortBy());
+        if (sortKey == null) {
+            return Result.fail("不支持的排序字段：" + query.getSortBy());
+        }
+        // 1.搜索本页的商铺id
+        ShopSearchEngine.Hits hits = shopSearchEngine.search(query, sortKey, SystemConstants.DEFAULT_PAGE_SIZE);
+        CursorResult result = new CursorResult();
+        result.setCursor(hits.getCursor());
+        if (hits.isTruncated()) {
+            // 半径内的商铺超过候选上限，只在最近的一部分中排序
+            result.setTruncated(true);
+        }
+        if (hits.getIds().isEmpty()) {
+            result.setList(Collections.emptyList());
+            return Result.ok(result);
+        }
+        // 2.通过商铺缓存批量查询Shop，结果与id顺序一致
+        List<Shop> shops = cacheClient.queryBatchWithLogicalExpire(CACHE_SHOP_KEY, hits.getIds(), Shop.class, this::listByIds,
+                Shop::getId, LOCK_SHOP_KEY, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        for (Shop shop : shops) {
+            shop.setDistance(hits.getDistances().get(shop.getId()));
+        }
+        result.setList(shops);
+        return Result.ok(result);
+    }
+
+    /**
+     * 附近商铺的网格精度：坐标乘以该值后取整，约100米一格
+     */
+    private static final int GEO_CELL_SCALE = 1000;
+
+    /**
+     * 附近商铺的搜索半径（米）和每个网格缓存的最大商铺数量
+     */
+    private static final double GEO_SEARCH_RADIUS = 5000;
+    private static final int GEO_CACHE_LIMIT = 500;
+
+    /**
+     * 网格没有商铺时写入的占位元素
+     */
+    private static final String GEO_EMPTY = "0";
+
     @Override
-    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String cursor) {
         // 1.判断是否需要根据坐标查询
         if (x == null || y == null) {
             // 不需要坐标查询，按照数据库查询
@@ -302,46 +420,178 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             // 返回数据
             return Result.ok(page.getRecords());
         }
-        // 2.计算分页参数
-        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
-        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        // 2.计算网格和分页参数，游标中记录第一页的网格，翻页时位置的微小变化不会换到另一个网格
+        // 游标为 网格x|网格y|已返回数量|上一页最后一个商铺的距离|id，由客户端传入，需要校验范围
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        long cellX;
+        long cellY;
+        int from;
+        double lastDistance = -1;
+        long lastId = 0;
+        String[] parts = CursorUtils.decodeParts(cursor, 5);
+        if (parts == null) {
+            cellX = Math.round(x * GEO_CELL_SCALE);
+            cellY = Math.round(y * GEO_CELL_SCALE);
+            from = (Math.max(current, 1) - 1) * pageSize;
+        } else {
+            try {
+                cellX = Long.parseLong(parts[0]);
+                cellY = Long.parseLong(parts[1]);
+                from = Integer.parseInt(parts[2]);
+                lastDistance = Double.parseDouble(parts[3]);
+                lastId = Long.parseLong(parts[4]);
+            } catch (NumberFormatException e) {
+                throw new CursorUtils.InvalidCursorException(cursor);
+            }
+            if (Math.abs(cellX) > 180L * GEO_CELL_SCALE || Math.abs(cellY) > 90L * GEO_CELL_SCALE
+                    || from < 0 || !(lastDistance >= 0 && lastDistance <= GEO_SEARCH_RADIUS)) {
+                throw new CursorUtils.InvalidCursorException(cursor);
+            }
+        }
+        // 与网格缓存一样，最多返回最近的 GEO_CACHE_LIMIT 个商铺
+        if (from >= GEO_CACHE_LIMIT) {
+            return Result.ok(new CursorResult());
+        }
 
-        // 3.查询Redis、按照距离排序、分页，结果：shopId、distance
-        String key = SHOP_GEO_KEY + typeId;
+        // 3.查询本页的商铺id和距离，多查一条用来判断是否有下一页
+        double centerX = (double) cellX / GEO_CELL_SCALE;
+        double centerY = (double) cellY / GEO_CELL_SCALE;
+        List<Long> ids = new ArrayList<>(pageSize + 1);
+        Map<Long, Double> distanceMap = new HashMap<>(pageSize + 1);
+        if (shopGeoIndex.isReady()) {
+            // 3.1 开启了内存空间索引，在内存中按 (距离, id) 键集查询上一页之后的 pageSize + 1 个，不从头计算前 from 个
+            // 没有游标时（第一页或按页码查询）跳过前 from 个，from 不超过 GEO_CACHE_LIMIT
+            int skip = parts == null ? from : 0;
+            int k = skip + pageSize + 1;
+            long[] nearIds = new long[k];
+            double[] nearDistances = new double[k];
+            int count = shopGeoIndex.nearestAfter(typeId.longValue(), centerX, centerY, GEO_SEARCH_RADIUS,
+                    lastDistance, lastId, k, nearIds, nearDistances);
+            for (int i = skip; i < count; i++) {
+                ids.add(nearIds[i]);
+                distanceMap.put(nearIds[i], nearDistances[i]);
+            }
+        } else {
+            // 3.2 LRANGE 读取网格缓存中的本页，元素为 shopId:距离
+            String key = CACHE_SHOP_GEO_KEY + typeId + ":" + cellX + ":" + cellY;
+            List<String> entries = stringRedisTemplate.opsForList().range(key, from, from + pageSize);
+            if ((entries == null || entries.isEmpty()) && !Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                // 网格缓存不存在，GEOSEARCH 一次后缓存
+                List<String> all = cacheGeoCell(key, typeId, centerX, centerY);
+                entries = all.subList(Math.min(from, all.size()), Math.min(from + pageSize + 1, all.size()));
+            }
+            if (entries != null) {
+                for (String entry : entries) {
+                    if (GEO_EMPTY.equals(entry)) {
+                        break;
+                    }
+                    int index = entry.indexOf(':');
+                    Long id = Long.valueOf(entry.substring(0, index));
+                    ids.add(id);
+                    distanceMap.put(id, Double.valueOf(entry.substring(index + 1)));
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            // 没有下一页了，结束
+            return Result.ok(new CursorResult());
+        }
+
+        // 4.截取本页，生成下一页的游标
+        CursorResult result = new CursorResult();
+        if (ids.size() > pageSize) {
+            ids = ids.subList(0, pageSize);
+            if (from + pageSize < GEO_CACHE_LIMIT) {
+                Long tail = ids.get(pageSize - 1);
+                result.setCursor(CursorUtils.encodeParts(cellX, cellY, from + pageSize, distanceMap.get(tail), tail));
+            }
+        }
+
+        // 5.通过商铺缓存批量查询Shop，并按用户的实际位置重新计算展示的距离
+        // 返回顺序保持与游标一致的 (网格中心距离, id)，按实际距离重新排序会使翻页边界附近的商铺乱序
+        List<Shop> shops = cacheClient.queryBatchWithLogicalExpire(CACHE_SHOP_KEY, ids, Shop.class, this::listByIds,
+                Shop::getId, LOCK_SHOP_KEY, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        for (Shop shop : shops) {
+            if (shop.getX() != null && shop.getY() != null) {
+                shop.setDistance(GeoUtils.distance(x, y, shop.getX(), shop.getY()));
+            } else {
+                // 没有坐标时使用网格中心的距离
+                shop.setDistance(distanceMap.get(shop.getId()));
+            }
+        }
+        result.setList(shops);
+        return Result.ok(result);
+    }
+
+    /**
+     * 从网格中心 GEOSEARCH 附近的商铺，按距离写入 list 缓存：写入临时key后 RENAME，不会读到写了一半的结果
+     *
+     * @return 缓存的元素 shopId:距离
+     */
+    private List<String> cacheGeoCell(String key, Integer typeId, double x, double y) {
         GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
-                .search(key,
+                .search(SHOP_GEO_KEY + typeId,
                         GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
+                        new Distance(GEO_SEARCH_RADIUS),
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(GEO_CACHE_LIMIT)
                 );
-
-        // 4.解析出id
-        if (results == null) {
-            return Result.ok(Collections.emptyList());
+        List<String> entries = new ArrayList<>();
+        if (results != null) {
+            for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results.getContent()) {
+                entries.add(result.getContent().getName() + ":" + Math.round(result.getDistance().getValue()));
+            }
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if (list.size() <= from) {
-            // 没有下一页了，结束
-            return Result.ok(Collections.emptyList());
+        if (entries.isEmpty()) {
+            entries.add(GEO_EMPTY);
         }
-        // 4.1 截取 from ~ end 的部分
-        ArrayList<Long> ids = new ArrayList<>(list.size());
-        HashMap<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            // 4.2 获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            // 4.3 获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
+        String tmpKey = key + ":" + UUID.randomUUID().toString(true);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.rPush(tmpKey, entries.toArray(new String[0]));
+            conn.rename(tmpKey, key);
+            conn.expire(key, TimeUnit.MINUTES.toSeconds(CACHE_SHOP_GEO_TTL));
+            return null;
         });
+        return entries;
+    }
 
-        // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id, " + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+    @Override
+    public Result queryShopByName(String name, String cursor) {
+        // 1.解析游标，按 (create_time, id) 键集分页，不再执行 COUNT 和 LIMIT offset
+        Pair<LocalDateTime, Long> last = CursorUtils.decode(cursor);
+        if (StrUtil.isNotBlank(name) && shopNameIndex.isReady()) {
+            // 1.1 有关键字时查询内存中的名称索引，再通过商铺缓存批量查询Shop，不再执行 LIKE '%name%'
+            List<Long> ids = shopNameIndex.search(name, last, SystemConstants.MAX_PAGE_SIZE + 1);
+            List<Shop> shops = cacheClient.queryBatchWithLogicalExpire(CACHE_SHOP_KEY, ids, Shop.class, this::listByIds,
+                    Shop::getId, LOCK_SHOP_KEY, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            return Result.ok(CursorUtils.page(shops, SystemConstants.MAX_PAGE_SIZE, Shop::getCreateTime, Shop::getId));
+        }
+        // 2.查询 pageSize + 1 条，多出的一条用来判断是否有下一页
+        List<Shop> shops = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                // create_time 可能为NULL，倒序时NULL排在最后
+                .and(last != null && last.getKey() == null, w -> w.isNull("create_time").lt("id", last.getValue()))
+                .and(last != null && last.getKey() != null, w -> w.lt("create_time", last.getKey())
+                        .or(o -> o.eq("create_time", last.getKey()).lt("id", last.getValue()))
+                        .or(o -> o.isNull("create_time")))
+                .orderByDesc("create_time", "id")
+                .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        // 3.封装结果
+        return Result.ok(CursorUtils.page(shops, SystemConstants.MAX_PAGE_SIZE, Shop::getCreateTime, Shop::getId));
+    }
+
+    /**
+     * 商铺名称联想词
+     *
+     * @param prefix 输入的关键字
+     * @return 名称包含关键字的商铺id和名称
+     */
+    @Override
+    public Result suggestShops(String prefix) {
+        if (StrUtil.isBlank(prefix) || !shopNameIndex.isReady()) {
+            return Result.ok(Collections.emptyList());
         }
-        return Result.ok(shops);
+        return Result.ok(shopNameIndex.suggest(prefix, SystemConstants.MAX_PAGE_SIZE));
     }
 }
@@ -4,8 +4,11 @@ import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.ShopTypeCache;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +20,16 @@ import org.springframework.stereotype.Service;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    @Resource
+    private ShopTypeCache shopTypeCache;
+
+    /**
+     * 查询商铺类型列表的快照，包含序列化好的响应体和ETag
+     *
+     * @return
+     */
+    @Override
+    public ShopTypeCache.Snapshot queryTypeSnapshot() {
+        return shopTypeCache.get();
+    }
 }
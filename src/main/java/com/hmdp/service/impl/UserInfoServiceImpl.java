@@ -4,8 +4,11 @@ import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.FollowGraph;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +20,20 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private FollowGraph followGraph;
+
+    // 查询用户详情，并叠加尚未刷入数据库的粉丝数、关注数
+    @Override
+    public UserInfo queryUserInfo(Long userId) {
+        UserInfo info = getById(userId);
+        if (info == null) {
+            return null;
+        }
+        int fans = info.getFans() == null ? 0 : info.getFans();
+        int followee = info.getFollowee() == null ? 0 : info.getFollowee();
+        info.setFans((int) Math.max(fans + followGraph.pendingFans(userId), 0));
+        info.setFollowee((int) Math.max(followee + followGraph.pendingFollowee(userId), 0));
+        return info;
+    }
 }
@@ -1,8 +1,8 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -10,21 +10,22 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginGuard;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SessionStore;
+import com.hmdp.utils.SignAnalytics;
+import com.hmdp.utils.SignCalendar;
+import com.hmdp.utils.SignedTokens;
 import com.hmdp.utils.UserHolder;
-import org.springframework.data.redis.connection.BitFieldSubCommands;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.time.LocalDate;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -33,16 +34,32 @@ import static com.hmdp.utils.RedisConstants.*;
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private CacheClient cacheClient;
+
+    @Resource
+    private SessionStore sessionStore;
+
+    @Resource
+    private SignedTokens signedTokens;
+
+    @Resource
+    private SignCalendar signCalendar;
+
+    @Resource
+    private SignAnalytics signAnalytics;
+
+    @Resource
+    private LoginGuard loginGuard;
 
     /**
      * 发送手机验证码
      *
      * @param phone
+     * @param ip 客户端IP，用于按IP限流
      * @return
      */
     @Override
-    public Result sendCode(String phone, HttpSession session) {
+    public Result sendCode(String phone, String ip, HttpSession session) {
         // 1、校验手机号格式
         if (!RegexUtils.isPhoneInvalid(phone)) {
             // 2、手机号格式错误，返回错误信息
@@ -52,8 +69,17 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         // 3、生成验证码
         String code = RandomUtil.randomNumbers(6);
 
-        // 4、保存验证码到redis中
-        stringRedisTemplate.opsForValue().set(LOGIN_CODE_KEY + phone, code, LOGIN_CODE_TTL, TimeUnit.MINUTES);  // 业务前缀 + 数据有效期
+        // 4、限流通过后保存验证码到redis中，一次lua脚本完成
+        long[] status = loginGuard.trySend(phone, ip, code);
+        if (status[0] == LoginGuard.SEND_LOCKED) {
+            return Result.fail("验证码错误次数过多，请" + waitSeconds(status[1]) + "秒后再试!");
+        }
+        if (status[0] == LoginGuard.SEND_COOLDOWN) {
+            return Result.fail("发送太频繁，请" + waitSeconds(status[1]) + "秒后再试!");
+        }
+        if (status[0] != LoginGuard.SEND_OK) {
+            return Result.fail("发送次数过多，请" + waitSeconds(status[1]) + "秒后再试!");
+        }
 
         // 5、发送验证码到前端
         log.debug("发送短信验证码成功，验证码：" + code);
@@ -61,6 +87,10 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok();
     }
 
+    private static long waitSeconds(long millis) {
+        return Math.max(1, (millis + 999) / 1000);
+    }
+
     /**
      * 登录、注册功能
      *
@@ -76,11 +106,14 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             return Result.fail("手机号格式错误！");
         }
 
-        // 2、从redis获取验证码并校验验证码
+        // 2、校验验证码，失败次数过多时锁定
         String code = loginForm.getCode();  // 表单提交的验证码
-        String cacheCode = stringRedisTemplate.opsForValue().get(LOGIN_CODE_KEY + phone);
-        if (cacheCode == null || !cacheCode.equals(code)) {
-            // 验证码不一致，返回错误信息
+        long[] status = loginGuard.verify(phone, code);
+        if (status[0] == LoginGuard.VERIFY_LOCKED) {
+            return Result.fail("验证码错误次数过多，请" + waitSeconds(status[1]) + "秒后再试!");
+        }
+        if (status[0] != LoginGuard.VERIFY_OK) {
+            // 验证码不一致或已过期，返回错误信息
             return Result.fail("验证码错误!");
         }
 
@@ -91,75 +124,96 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             user = createUserWithPhone(phone);
         }
 
-        // 4、保存用户数据到redis中
-        // 4.1、随机生成token，作为登录令牌
-        String token = UUID.randomUUID().toString();
-        // 4.2、将User对象转为Hash存储
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(), CopyOptions.create()
-                .setIgnoreNullValue(true)
-                .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-        // 4.3、存储
-        String tokenKey = LOGIN_USER_KEY + token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
-        // 4.4、保存token在redis中的有效期
-        stringRedisTemplate.expire(tokenKey, 30L, TimeUnit.MINUTES);
-
-        // 5、返回token
+        // 4、开启签名token时直接签发，用户信息保存在token中
+        if (signedTokens.isEnabled()) {
+            return Result.ok(signedTokens.issue(userDTO));
+        }
+
+        // 5、保存用户数据到redis中
+        // 5.1、随机生成token，作为登录令牌
+        String token = UUID.randomUUID().toString();
+        // 5.2、将User对象转为Hash存储，并设置token的有效期
+        sessionStore.save(token, userDTO);
+
+        // 6、返回token
         return Result.ok(token);
     }
 
+    /**
+     * 退出登录，删除会话并通知所有节点
+     */
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isBlank(token)) {
+            return Result.ok();
+        }
+        if (signedTokens.isSigned(token)) {
+            signedTokens.revoke(token);
+        } else {
+            sessionStore.invalidate(token);
+        }
+        return Result.ok();
+    }
+
     @Override
     public Result sign() {
         // 1. 获取当前登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2. 获取日期
-        LocalDateTime now = LocalDateTime.now();
-        // 3. 拼接key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern("yyyyMM"));
-        String key = USER_SIGN_KEY + userId + ":" + keySuffix;
-        // 4. 获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth();  // 1~31
-        // 5. 写入Redis SETBIT key offset 1
-        stringRedisTemplate.opsForValue().setBit(key, dayOfMonth - 1, true);
+        // 2. 写入本月位图，并增量更新连续签到天数
+        signCalendar.sign(userId, LocalDate.now());
         return Result.ok();
     }
 
     @Override
     public Result signCount() {
-        // 1. 获取当前登录用户
+        // 连续签到天数由签到时增量维护，不需要再逐位统计位图
         Long userId = UserHolder.getUser().getId();
-        // 2. 获取日期
-        LocalDateTime now = LocalDateTime.now();
-        // 3. 拼接key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern("yyyyMM"));
-        String key = USER_SIGN_KEY + userId + ":" + keySuffix;
-        // 4. 获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth();  // 1~31
-
-        // 5.获取本月截止今天为止所有的签到记录，返回的是一个10进制数
-        List<Long> result = stringRedisTemplate.opsForValue().bitField(key, BitFieldSubCommands.create()
-                .get(BitFieldSubCommands.BitFieldType.unsigned(dayOfMonth)).valueAt(0)
-        );
-        if (result == null || result.isEmpty()) {
-            return Result.ok(0);
-        }
-        // 取当天的签到结果
-        Long num = result.get(0);
-        if (num == null || num == 0) {
-            return Result.ok(0);
+        return Result.ok(signCalendar.currentStreak(userId, LocalDate.now()));
+    }
+
+    @Override
+    public Result signStats(Integer year) {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        return Result.ok(signCalendar.stats(userId, year == null ? today.getYear() : year, today));
+    }
+
+    @Override
+    public Result signDailyActive(LocalDate date) {
+        return Result.ok(signAnalytics.dailyActive(date == null ? LocalDate.now() : date));
+    }
+
+    @Override
+    public Result signWeeklyActive(LocalDate date) {
+        return Result.ok(signAnalytics.weeklyActive(date == null ? LocalDate.now() : date));
+    }
+
+    @Override
+    public Result signRetention(LocalDate date, Integer days) {
+        if (date == null) {
+            return Result.fail("日期不能为空！");
         }
-        // 6.循环遍历
-        int count = 0;
-        while (true) {
-            if ((num & 1) == 0) {
-                break;
-            } else {
-                count++;
-            }
-            num = num >> 1;
+        return Result.ok(signAnalytics.retention(date, days == null ? 7 : days));
+    }
+
+    /**
+     * 批量查询用户的公开信息（昵称、头像），MGET 读取缓存，未命中的才查询数据库
+     *
+     * @param ids 用户id
+     * @return 用户id -> 用户信息，不存在的用户不在结果中
+     */
+    @Override
+    public Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyMap();
         }
-        return Result.ok(count);
+        return cacheClient.queryBatchWithPassThrough(CACHE_USER_KEY, new ArrayList<>(new LinkedHashSet<>(ids)), UserDTO.class,
+                        missIds -> listByIds(missIds).stream()
+                                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                                .collect(Collectors.toList()),
+                        UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES)
+                .stream().collect(Collectors.toMap(UserDTO::getId, user -> user));
     }
 
     /**
@@ -1,5 +1,7 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,13 +9,19 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.TransactionUtils;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_TTL;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
@@ -33,14 +41,35 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 1.查询店铺的优惠券缓存，没有优惠券的店铺缓存空列表
+        List<Voucher> vouchers;
+        String json = stringRedisTemplate.opsForValue().get(CACHE_VOUCHER_KEY + shopId);
+        if (StrUtil.isNotBlank(json)) {
+            vouchers = JSONUtil.toList(json, Voucher.class);
+        } else {
+            // 2.缓存不存在，查询优惠券信息并写入缓存
+            vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+            cacheClient.set(CACHE_VOUCHER_KEY + shopId, vouchers, CACHE_VOUCHER_TTL, TimeUnit.MINUTES);
+        }
+        // 3.缓存中的库存可能已经过时，用一次 MGET 读取Redis中秒杀券的实时库存
+        fillSeckillStock(vouchers);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    public void addVoucher(Voucher voucher) {
+        // 保存优惠券
+        save(voucher);
+        // 删除店铺的优惠券缓存，有事务时在提交后删除
+        TransactionUtils.afterCommit(() -> stringRedisTemplate.delete(CACHE_VOUCHER_KEY + voucher.getShopId()));
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -55,5 +84,32 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucherService.save(seckillVoucher);
         // 保存秒杀库存到Redis中
         stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 事务提交后删除店铺的优惠券缓存，提交前删除时并发查询可能把旧列表重新写入缓存
+        TransactionUtils.afterCommit(() -> stringRedisTemplate.delete(CACHE_VOUCHER_KEY + voucher.getShopId()));
+    }
+
+    // 用 seckill:stock:{id} 覆盖秒杀券的库存，普通券没有库存
+    private void fillSeckillStock(List<Voucher> vouchers) {
+        List<Voucher> seckillVouchers = new ArrayList<>(vouchers.size());
+        List<String> keys = new ArrayList<>(vouchers.size());
+        for (Voucher voucher : vouchers) {
+            if (voucher.getStock() != null) {
+                seckillVouchers.add(voucher);
+                keys.add(SECKILL_STOCK_KEY + voucher.getId());
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (stocks == null) {
+            return;
+        }
+        for (int i = 0; i < seckillVouchers.size(); i++) {
+            String stock = stocks.get(i);
+            if (stock != null) {
+                seckillVouchers.get(i).setStock(Integer.valueOf(stock));
+            }
+        }
     }
 }
@@ -0,0 +1,169 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_LANDMARK_KEY;
+
+/**
+ * 笔记热度排行榜
+ * <p>
+ * 热度 = Σ 事件权重 × e^(-λ × 事件距今时长)，点赞、评论、发布都是事件。
+ * 采用前向衰减存储：每个事件按 e^(λ × (事件时间 - 基准时间)) 放大后累加，排行榜顺序与按当前时间衰减后的顺序一致，
+ * 因此点赞、发布时只需要一次 ZINCRBY；定时任务再把所有分数统一衰减到新的基准时间，防止分数无限增长。
+ */
+@Slf4j
+@Component
+public class BlogHotRanker {
+
+    /**
+     * 热度半衰期：24小时
+     */
+    private static final double HALF_LIFE_MILLIS = 24 * 60 * 60 * 1000D;
+    private static final double LAMBDA = Math.log(2) / HALF_LIFE_MILLIS;
+
+    public static final double PUBLISH_WEIGHT = 1D;
+    public static final double LIKE_WEIGHT = 1D;
+    public static final double COMMENT_WEIGHT = 2D;
+
+    /**
+     * 排行榜最多保留的笔记数量
+     */
+    private static final int MAX_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> INCR_SCRIPT;
+    private static final DefaultRedisScript<Long> RESCALE_SCRIPT;
+    static {
+        INCR_SCRIPT = new DefaultRedisScript<>();
+        INCR_SCRIPT.setLocation(new ClassPathResource("blog_hot_incr.lua"));
+        INCR_SCRIPT.setResultType(Long.class);
+        RESCALE_SCRIPT = new DefaultRedisScript<>();
+        RESCALE_SCRIPT.setLocation(new ClassPathResource("blog_hot_rescale.lua"));
+        RESCALE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    /**
+     * 增量更新笔记热度，事件发生在当前时间
+     *
+     * @param blogId 笔记id
+     * @param weight 事件权重
+     */
+    public void incr(Long blogId, double weight) {
+        incr(blogId, weight, System.currentTimeMillis());
+    }
+
+    /**
+     * 增量更新笔记热度
+     *
+     * @param blogId    笔记id
+     * @param weight    事件权重，取消点赞等撤销事件传负数
+     * @param eventTime 事件发生时间，撤销事件传被撤销事件的时间，扣减的正好是该事件增加的热度
+     */
+    public void incr(Long blogId, double weight, long eventTime) {
+        stringRedisTemplate.execute(
+                INCR_SCRIPT,
+                Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_LANDMARK_KEY),
+                blogId.toString(), String.valueOf(weight), String.valueOf(System.currentTimeMillis()), String.valueOf(LAMBDA),
+                String.valueOf(eventTime)
+        );
+    }
+
+    /**
+     * 按热度倒序分页查询笔记id ZREVRANGE blog:hot from end
+     */
+    public Set<String> range(long from, long end) {
+        return stringRedisTemplate.opsForZSet().reverseRange(BLOG_HOT_KEY, from, end);
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 定时把分数衰减到新的基准时间，并裁剪排行榜
+     */
+    @Scheduled(fixedDelay = 10 * 60 * 1000, initialDelay = 10 * 60 * 1000)
+    public void rescale() {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            rebuild();
+            return;
+        }
+        stringRedisTemplate.execute(
+                RESCALE_SCRIPT,
+                Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_LANDMARK_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(LAMBDA), String.valueOf(MAX_SIZE)
+        );
+    }
+
+    /**
+     * 根据数据库中最近的笔记重建排行榜，只在排行榜不存在时执行
+     */
+    public void rebuild() {
+        RLock lock = redissonClient.getLock("lock:blog:hot");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+                return;
+            }
+            // 1.按主键倒序取最近的笔记，避免 ORDER BY liked 的文件排序
+            List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                    .select("id", "liked", "comments", "create_time")
+                    .orderByDesc("id")
+                    .last("LIMIT " + MAX_SIZE));
+            if (blogs.isEmpty()) {
+                return;
+            }
+            // 2.以当前时间为基准计算衰减后的热度
+            long now = System.currentTimeMillis();
+            Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(blogs.size());
+            for (Blog blog : blogs) {
+                double weight = PUBLISH_WEIGHT
+                        + LIKE_WEIGHT * (blog.getLiked() == null ? 0 : blog.getLiked())
+                        + COMMENT_WEIGHT * (blog.getComments() == null ? 0 : blog.getComments());
+                long age = blog.getCreateTime() == null ? 0 :
+                        now - blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                tuples.add(new DefaultTypedTuple<>(blog.getId().toString(), weight * Math.exp(-LAMBDA * Math.max(age, 0))));
+            }
+            // 3.写入Redis
+            stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, tuples);
+            stringRedisTemplate.opsForValue().set(BLOG_HOT_LANDMARK_KEY, String.valueOf(now));
+            log.debug("笔记热度排行榜重建完成，共{}篇", tuples.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
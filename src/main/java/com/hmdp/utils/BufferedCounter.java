@@ -0,0 +1,187 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 基于Redis hash的计数器写合并
+ * <p>
+ * 计数的增量先累加在 pendingKey 中（field 为业务id），定时任务把增量批量刷入数据库。
+ * 刷入前先把 pendingKey 原子地 RENAME 为 flushingKey，并生成刷入id，按 field 的哈希值把增量分为若干组；
+ * 每组在一个事务中写入数据库并记录批次id "刷入id:组号"（见 {@link CounterFlushLog}），提交后再从 flushingKey 中删除这一组。
+ * 如果刷入过程中进程崩溃，剩余的增量保留在 flushingKey 中，下一次刷入时沿用原来的刷入id和分组重试：
+ * 已提交但未删除的组因为批次id已存在而跳过，增量不会丢失也不会重复写入。
+ * 读取计数时用 {@link #pending(Collection)} 把尚未刷入的增量叠加到数据库中的值上。
+ */
+@Slf4j
+public class BufferedCounter {
+
+    /**
+     * 每条批量更新语句平均包含的记录数
+     */
+    private static final int FLUSH_BATCH_SIZE = 500;
+
+    private static final DefaultRedisScript<String> FLUSH_SCRIPT;
+    static {
+        FLUSH_SCRIPT = new DefaultRedisScript<>();
+        FLUSH_SCRIPT.setLocation(new ClassPathResource("counter_flush.lua"));
+        FLUSH_SCRIPT.setResultType(String.class);
+    }
+
+    private final String pendingKey;
+    private final String flushingKey;
+    private final String flushIdKey;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+    private final CounterFlushLog counterFlushLog;
+
+    public BufferedCounter(String pendingKey, StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient,
+                           CounterFlushLog counterFlushLog) {
+        this.pendingKey = pendingKey;
+        this.flushingKey = pendingKey + ":flushing";
+        this.flushIdKey = flushingKey + ":id";
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.counterFlushLog = counterFlushLog;
+    }
+
+    public String getPendingKey() {
+        return pendingKey;
+    }
+
+    public String getFlushingKey() {
+        return flushingKey;
+    }
+
+    /**
+     * 累加增量 HINCRBY pendingKey id delta
+     */
+    public void incr(Long id, long delta) {
+        incr(id.toString(), delta);
+    }
+
+    /**
+     * 累加增量 HINCRBY pendingKey field delta，field 不是单个id时使用，例如 "userId:followUserId"
+     */
+    public void incr(String field, long delta) {
+        stringRedisTemplate.opsForHash().increment(pendingKey, field, delta);
+    }
+
+    /**
+     * 查询尚未刷入数据库的增量（包含正在刷入的部分）
+     *
+     * @return id -> 增量，没有增量的id不在结果中
+     */
+    public Map<Long, Long> pending(Collection<Long> ids) {
+        if (CollUtil.isEmpty(ids)) {
+            return Collections.emptyMap();
+        }
+        String[] fields = ids.stream().map(String::valueOf).toArray(String[]::new);
+        // 一次往返读取两个hash
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMGet(pendingKey, fields);
+            conn.hMGet(flushingKey, fields);
+            return null;
+        });
+        Map<Long, Long> deltas = new HashMap<>();
+        for (Object result : results) {
+            List<?> values = (List<?>) result;
+            for (int i = 0; i < fields.length; i++) {
+                Object value = values.get(i);
+                if (value != null) {
+                    deltas.merge(Long.valueOf(fields[i]), Long.valueOf(value.toString()), Long::sum);
+                }
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * 查询单个id尚未刷入数据库的增量
+     */
+    public long pending(Long id) {
+        return pending(Collections.singletonList(id)).getOrDefault(id, 0L);
+    }
+
+    /**
+     * 把累加的增量批量刷入数据库
+     *
+     * @param writer 数据库批量写入，每次约 {@value #FLUSH_BATCH_SIZE} 条，在记录批次id的事务中执行，抛出异常时增量保留到下一次重试
+     */
+    public void flush(Consumer<Map<Long, Long>> writer) {
+        flushFields(batch -> {
+            Map<Long, Long> deltas = new HashMap<>(batch.size());
+            batch.forEach((field, delta) -> deltas.put(Long.valueOf(field), delta));
+            writer.accept(deltas);
+        });
+    }
+
+    /**
+     * 把累加的增量批量刷入数据库，field 按原样传给 writer
+     *
+     * @param writer 数据库批量写入，每次约 {@value #FLUSH_BATCH_SIZE} 条，在记录批次id的事务中执行，抛出异常时增量保留到下一次重试
+     */
+    public void flushFields(Consumer<Map<String, Long>> writer) {
+        // 多个节点同时刷入会重复写入flushingKey中的增量，需要加锁
+        RLock lock = redissonClient.getLock("lock:" + flushingKey);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 1.切换待刷入的增量，返回 "刷入id:分组数"
+            String info = stringRedisTemplate.execute(FLUSH_SCRIPT, Arrays.asList(pendingKey, flushingKey, flushIdKey),
+                    UUID.randomUUID().toString(), String.valueOf(FLUSH_BATCH_SIZE));
+            if (info == null) {
+                return;
+            }
+            int index = info.lastIndexOf(':');
+            String flushId = info.substring(0, index);
+            int buckets = Math.max(Integer.parseInt(info.substring(index + 1)), 1);
+            // 2.读取增量并按 field 的哈希值分组，重试时分组不变；跳过互相抵消的记录
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(flushingKey);
+            List<Map<String, Long>> batches = new ArrayList<>(buckets);
+            for (int i = 0; i < buckets; i++) {
+                batches.add(new HashMap<>());
+            }
+            for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+                long delta = Long.parseLong(entry.getValue().toString());
+                if (delta == 0) {
+                    continue;
+                }
+                String field = entry.getKey().toString();
+                batches.get(Math.floorMod(field.hashCode(), buckets)).put(field, delta);
+            }
+            // 3.逐组写入数据库
+            for (int i = 0; i < buckets; i++) {
+                if (!batches.get(i).isEmpty()) {
+                    write(flushId + ":" + i, batches.get(i), writer);
+                }
+            }
+            // 4.全部写入成功，删除剩余的（互相抵消的）增量和刷入id
+            stringRedisTemplate.delete(Arrays.asList(flushingKey, flushIdKey));
+            log.debug("{}刷入数据库完成，共{}条", pendingKey, entries.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 写入一组增量，与批次id在同一个事务中提交；提交后从flushingKey中删除，已提交过的组只删除不再写入
+    private void write(String batchId, Map<String, Long> batch, Consumer<Map<String, Long>> writer) {
+        boolean applied = counterFlushLog.applyOnce(pendingKey + ":" + batchId, () -> writer.accept(batch));
+        if (!applied) {
+            log.warn("{}的批次{}已经写入过，跳过", pendingKey, batchId);
+        }
+        stringRedisTemplate.opsForHash().delete(flushingKey, batch.keySet().toArray());
+    }
+}
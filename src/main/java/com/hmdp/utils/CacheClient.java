@@ -5,15 +5,19 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -72,6 +76,60 @@ public class CacheClient {
     }
 
 
+    /**
+     * 批量查询缓存，一次 MGET 读取所有id，未命中的id一次批量查询数据库后用管道写回缓存
+     *
+     * @param ids        要查询的id，返回结果与其顺序一致，不存在的数据会被跳过
+     * @param dbFallback 根据未命中的id批量查询数据库
+     * @param idGetter   获取数据的id，用来和查询的id对应
+     */
+    public <R, ID> List<R> queryBatchWithPassThrough(String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>, List<R>> dbFallback,
+                                                    Function<R, ID> idGetter, Long time, TimeUnit timeUnit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1、MGET 批量查询缓存
+        List<String> keys = ids.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<ID, R> hits = new HashMap<>(ids.size());
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                hits.put(ids.get(i), JSONUtil.toBean(json, type));
+            } else if (json == null) {
+                // 空字符串是缓存的空值，不需要再查询数据库
+                missIds.add(ids.get(i));
+            }
+        }
+
+        // 2、未命中的id批量查询数据库，并用管道写回缓存，数据库中不存在的写入空值防止缓存穿透
+        if (!missIds.isEmpty()) {
+            List<R> rs = dbFallback.apply(missIds);
+            for (R r : rs) {
+                hits.put(idGetter.apply(r), r);
+            }
+            long seconds = timeUnit.toSeconds(time);
+            long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (ID id : missIds) {
+                    R r = hits.get(id);
+                    if (r != null) {
+                        conn.setEx(keyPrefix + id, seconds, JSONUtil.toJsonStr(r));
+                    } else {
+                        conn.setEx(keyPrefix + id, nullSeconds, "");
+                    }
+                }
+                return null;
+            });
+        }
+
+        // 3、按查询顺序返回
+        return ids.stream().map(hits::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+
     // 创建线程池
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
@@ -133,6 +191,110 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 批量查询逻辑过期的缓存，一次 MGET 读取所有id
+     * <p>
+     * 未过期的直接返回；已过期的先返回旧数据，再由独立线程批量重建；缓存中不存在的一次批量查询数据库，并用管道写回缓存，
+     * 数据库中不存在的写入空值防止缓存穿透
+     *
+     * @param ids        要查询的id，返回结果与其顺序一致，不存在的数据会被跳过
+     * @param dbFallback 根据id批量查询数据库
+     * @param idGetter   获取数据的id，用来和查询的id对应
+     */
+    public <R, ID> List<R> queryBatchWithLogicalExpire(String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>, List<R>> dbFallback,
+                                                      Function<R, ID> idGetter, String lockPrefix, Long time, TimeUnit timeUnit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1、MGET 批量查询缓存
+        List<String> keys = ids.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<ID, R> hits = new HashMap<>(ids.size());
+        List<ID> missIds = new ArrayList<>();
+        List<ID> expiredIds = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (json == null) {
+                missIds.add(ids.get(i));
+                continue;
+            }
+            if (json.isEmpty()) {
+                // 空字符串是缓存的空值，不需要再查询数据库
+                continue;
+            }
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            hits.put(ids.get(i), JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            if (!redisData.getExpireTime().isAfter(now)) {
+                expiredIds.add(ids.get(i));
+            }
+        }
+
+        // 2、缓存中不存在的id批量查询数据库，并用管道写回缓存，数据库中不存在的写入空值
+        if (!missIds.isEmpty()) {
+            List<R> rs = dbFallback.apply(missIds);
+            for (R r : rs) {
+                hits.put(idGetter.apply(r), r);
+            }
+            setBatchWithLogicalExpire(keyPrefix, rs, idGetter, time, timeUnit);
+            setNullBatch(keyPrefix, missIds.stream().filter(id -> !hits.containsKey(id)).collect(Collectors.toList()));
+        }
+
+        // 3、已过期的id，获取到锁的由独立线程批量重建
+        if (!expiredIds.isEmpty()) {
+            List<ID> lockedIds = expiredIds.stream().filter(id -> tryLock(lockPrefix + id)).collect(Collectors.toList());
+            if (!lockedIds.isEmpty()) {
+                CACHE_REBUILD_EXECUTOR.submit(() -> {
+                    try {
+                        List<R> rs = dbFallback.apply(lockedIds);
+                        setBatchWithLogicalExpire(keyPrefix, rs, idGetter, time, timeUnit);
+                        // 已从数据库删除的数据写入空值
+                        Set<ID> found = rs.stream().map(idGetter).collect(Collectors.toSet());
+                        setNullBatch(keyPrefix, lockedIds.stream().filter(id -> !found.contains(id)).collect(Collectors.toList()));
+                    } finally {
+                        lockedIds.forEach(id -> unlock(lockPrefix + id));
+                    }
+                });
+            }
+        }
+
+        // 4、按查询顺序返回
+        return ids.stream().map(hits::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    // 用管道批量写入逻辑过期的缓存
+    private <R, ID> void setBatchWithLogicalExpire(String keyPrefix, List<R> rs, Function<R, ID> idGetter, Long time, TimeUnit timeUnit) {
+        if (rs.isEmpty()) {
+            return;
+        }
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (R r : rs) {
+                RedisData redisData = new RedisData();
+                redisData.setData(r);
+                redisData.setExpireTime(expireTime);
+                conn.set(keyPrefix + idGetter.apply(r), JSONUtil.toJsonStr(redisData));
+            }
+            return null;
+        });
+    }
+
+    // 用管道批量写入空值，有效期 CACHE_NULL_TTL 分钟
+    private <ID> void setNullBatch(String keyPrefix, List<ID> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ID id : ids) {
+                conn.setEx(keyPrefix + id, nullSeconds, "");
+            }
+            return null;
+        });
+    }
+
     // 尝试获取互斥锁
     private boolean tryLock(String key) {
         Boolean stage = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
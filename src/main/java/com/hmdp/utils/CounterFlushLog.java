@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import com.hmdp.mapper.CounterFlushMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+
+/**
+ * 计数增量的刷入记录，保证每批增量只写入数据库一次
+ * <p>
+ * 写入一批增量时，在同一个事务中先 INSERT IGNORE 批次id 到 tb_counter_flush，
+ * 插入的行数为0说明这一批已经提交过（例如提交后删除Redis中的增量之前进程崩溃），直接跳过。
+ */
+@Slf4j
+@Component
+public class CounterFlushLog {
+
+    /**
+     * 刷入记录保留的天数，未完成的刷入会在几秒内重试，远小于该值
+     */
+    private static final int RETAIN_DAYS = 7;
+
+    @Resource
+    private CounterFlushMapper counterFlushMapper;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 在一个事务中记录批次id并写入增量，批次已经写入过时不再执行
+     *
+     * @return 本次是否执行了写入
+     */
+    public boolean applyOnce(String batchId, Runnable write) {
+        Boolean applied = transactionTemplate.execute(status -> {
+            if (counterFlushMapper.insertIgnore(batchId) == 0) {
+                return false;
+            }
+            write.run();
+            return true;
+        });
+        return Boolean.TRUE.equals(applied);
+    }
+
+    /**
+     * 每天凌晨删除过期的刷入记录
+     */
+    @Scheduled(cron = "0 20 4 * * ?")
+    public void clean() {
+        int count = counterFlushMapper.deleteBefore(LocalDateTime.now().minusDays(RETAIN_DAYS));
+        log.debug("删除过期的计数刷入记录{}条", count);
+    }
+}
@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.lang.Pair;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.CursorResult;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 键集分页游标工具类，游标对客户端不透明，内容为上一页最后一条记录的 (create_time, id)
+ * <p>
+ * create_time 为NULL时游标中的时间为空，解析后为null；倒序查询时NULL排在最后。
+ * 游标格式错误（被篡改或伪造）时抛出 {@link InvalidCursorException}，由全局异常处理返回“无效的游标”。
+ */
+public class CursorUtils {
+
+    private static final String SEPARATOR = "|";
+
+    /**
+     * 生成游标
+     */
+    public static String encode(LocalDateTime time, Long id) {
+        return Base64.encodeUrlSafe((time == null ? "" : time.toString()) + SEPARATOR + id);
+    }
+
+    /**
+     * 解析游标
+     * @param cursor 游标，为空表示第一页
+     * @return (create_time, id)，第一页返回null；create_time 为NULL时 key 为null
+     */
+    public static Pair<LocalDateTime, Long> decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String str = Base64.decodeStr(cursor);
+            int index = str.lastIndexOf(SEPARATOR);
+            if (index < 0) {
+                throw new InvalidCursorException(cursor);
+            }
+            String time = str.substring(0, index);
+            return new Pair<>(time.isEmpty() ? null : LocalDateTime.parse(time), Long.valueOf(str.substring(index + 1)));
+        } catch (InvalidCursorException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new InvalidCursorException(cursor);
+        }
+    }
+
+    /**
+     * 生成由多个字段组成的游标，字段中不能包含分隔符
+     */
+    public static String encodeParts(Object... parts) {
+        return Base64.encodeUrlSafe(StrUtil.join(SEPARATOR, parts));
+    }
+
+    /**
+     * 解析 {@link #encodeParts} 生成的游标
+     * @param cursor 游标，为空表示第一页
+     * @return 各个字段，第一页返回null
+     */
+    public static String[] decodeParts(String cursor, int count) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        String[] parts;
+        try {
+            parts = StrUtil.splitToArray(Base64.decodeStr(cursor), SEPARATOR);
+        } catch (RuntimeException e) {
+            throw new InvalidCursorException(cursor);
+        }
+        if (parts.length != count) {
+            throw new InvalidCursorException(cursor);
+        }
+        return parts;
+    }
+
+    /**
+     * 封装分页结果
+     * @param records 按 (create_time, id) 倒序查询出的 pageSize + 1 条记录，多出的一条用来判断是否有下一页
+     */
+    public static <T> CursorResult page(List<T> records, int pageSize, Function<T, LocalDateTime> timeGetter, Function<T, Long> idGetter) {
+        CursorResult result = new CursorResult();
+        if (records.size() > pageSize) {
+            records = records.subList(0, pageSize);
+            T last = records.get(pageSize - 1);
+            result.setCursor(encode(timeGetter.apply(last), idGetter.apply(last)));
+        }
+        result.setList(records);
+        return result;
+    }
+
+    /**
+     * 游标格式错误
+     */
+    public static class InvalidCursorException extends RuntimeException {
+        public InvalidCursorException(String cursor) {
+            super("无效的游标：" + cursor);
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.Pair;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import com.hmdp.mapper.UserInfoMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 关注关系图
+ * <p>
+ * 每个用户的关注集合 follows:{userId} 和粉丝集合 followers:{userId} 都保存在Redis中，读请求只访问Redis。
+ * 集合不存在时从数据库分批加载，用户没有任何关注关系时集合中只有占位成员 {@link #EMPTY_MEMBER}，避免反复查询数据库。
+ * 关注、取关只修改Redis并记录变更，同时原子地累加双方的粉丝数、关注数，由定时任务批量写入 tb_follow 和 tb_user_info。
+ */
+@Slf4j
+@Component
+public class FollowGraph {
+
+    /**
+     * 占位成员，表示集合已从数据库加载，读取集合成员时需要跳过
+     */
+    public static final String EMPTY_MEMBER = "0";
+
+    /**
+     * 从数据库加载集合时每批读取的记录数
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    /**
+     * 查询共同关注时单次调用最多遍历的成员数量
+     */
+    private static final int COMMON_MAX_SCAN = 1000;
+
+    /**
+     * 较小的关注集合不超过该数量时精确计算共同关注数，否则用 HyperLogLog 估算
+     */
+    private static final int COMMON_EXACT_THRESHOLD = 1000;
+
+    /**
+     * 关注集合 HyperLogLog 的有效期（小时），限制并发构建时遗漏成员造成的误差
+     */
+    private static final long FOLLOW_HLL_TTL = 24L;
+
+    private static final DefaultRedisScript<Long> FOLLOW_SCRIPT;
+    private static final DefaultRedisScript<List> COMMON_FOLLOW_SCRIPT;
+    static {
+        FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_SCRIPT.setLocation(new ClassPathResource("follow.lua"));
+        FOLLOW_SCRIPT.setResultType(Long.class);
+        COMMON_FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        COMMON_FOLLOW_SCRIPT.setLocation(new ClassPathResource("common_follow.lua"));
+        COMMON_FOLLOW_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private CounterFlushLog counterFlushLog;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Resource
+    private UserInfoMapper userInfoMapper;
+
+    // 关注关系变更，field 为 "userId:followUserId"，+1 新增，-1 删除
+    private BufferedCounter changes;
+    // 粉丝数增量
+    private BufferedCounter fansCounter;
+    // 关注数增量
+    private BufferedCounter followeeCounter;
+
+    @PostConstruct
+    private void init() {
+        changes = new BufferedCounter(FOLLOW_PENDING_KEY, stringRedisTemplate, redissonClient, counterFlushLog);
+        fansCounter = new BufferedCounter(USER_FANS_PENDING_KEY, stringRedisTemplate, redissonClient, counterFlushLog);
+        followeeCounter = new BufferedCounter(USER_FOLLOWEE_PENDING_KEY, stringRedisTemplate, redissonClient, counterFlushLog);
+    }
+
+    /**
+     * 关注或取关
+     *
+     * @return 关注关系是否发生变化
+     */
+    public boolean follow(Long userId, Long followUserId, boolean isFollow) {
+        // 1.脚本只修改已加载的集合，先确保两个集合都已加载
+        String followsKey = loadFollows(userId);
+        String followersKey = loadFollowers(followUserId);
+        // 2.执行lua脚本，原子地修改两个集合并记录变更
+        Long result = stringRedisTemplate.execute(
+                FOLLOW_SCRIPT,
+                Arrays.asList(followsKey, followersKey, changes.getPendingKey(),
+                        fansCounter.getPendingKey(), followeeCounter.getPendingKey(),
+                        FOLLOW_HLL_KEY + userId, USER_RECOMMEND_KEY + userId),
+                userId.toString(), followUserId.toString(), isFollow ? "1" : "0"
+        );
+        return result != null && result == 1;
+    }
+
+    /**
+     * 是否关注 SISMEMBER follows:{userId} followUserId
+     */
+    public boolean isFollowing(Long userId, Long followUserId) {
+        String key = FOLLOW_USER_KEY + userId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, followUserId.toString()))) {
+            return true;
+        }
+        // 不是成员时再确认集合是否已加载
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return false;
+        }
+        loadFollows(userId);
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, followUserId.toString()));
+    }
+
+    /**
+     * 分批遍历用户的所有粉丝 SSCAN followers:{userId}，不会一次把大V的粉丝全部读入内存
+     *
+     * @param chunkSize 每批的粉丝数量
+     * @param consumer  处理一批粉丝id
+     */
+    public void scanFollowers(Long userId, int chunkSize, Consumer<List<Long>> consumer) {
+        String key = loadFollowers(userId);
+        List<Long> chunk = new ArrayList<>(chunkSize);
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(key, ScanOptions.scanOptions().count(chunkSize).build())) {
+            while (cursor.hasNext()) {
+                String member = cursor.next();
+                if (EMPTY_MEMBER.equals(member)) {
+                    continue;
+                }
+                chunk.add(Long.valueOf(member));
+                if (chunk.size() >= chunkSize) {
+                    consumer.accept(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            consumer.accept(chunk);
+        }
+    }
+
+    /**
+     * 分页查询共同关注：SSCAN 遍历较小的关注集合，逐个 SISMEMBER 探测较大的集合，每次调用的工作量有上限
+     *
+     * @param cursor 上一页返回的游标，第一页传null
+     * @return 下一页游标（null 表示没有下一页）和本页的共同关注用户id，本页可能为空而游标不为null
+     */
+    public Pair<String, List<Long>> commonFollows(Long userId, Long otherId, String cursor, int pageSize) {
+        String key1 = loadFollows(userId);
+        String key2 = loadFollows(otherId);
+        // 1.游标为 遍历的集合|SSCAN游标，第一页时选择较小的集合遍历，翻页时保持不变
+        boolean scanFirst;
+        String scanCursor;
+        String[] parts = CursorUtils.decodeParts(cursor, 2);
+        if (parts == null) {
+            scanFirst = size(key1) <= size(key2);
+            scanCursor = "0";
+        } else {
+            if (!("0".equals(parts[0]) || "1".equals(parts[0])) || !StrUtil.isNumeric(parts[1])) {
+                throw new CursorUtils.InvalidCursorException(cursor);
+            }
+            scanFirst = "0".equals(parts[0]);
+            scanCursor = parts[1];
+        }
+        // 2.执行lua脚本遍历、探测
+        List<String> result = stringRedisTemplate.execute(
+                COMMON_FOLLOW_SCRIPT,
+                scanFirst ? Arrays.asList(key1, key2) : Arrays.asList(key2, key1),
+                scanCursor, String.valueOf(pageSize), String.valueOf(COMMON_MAX_SCAN)
+        );
+        if (result == null || result.isEmpty()) {
+            return new Pair<>(null, Collections.emptyList());
+        }
+        // 3.解析结果，SSCAN 可能重复返回成员，需要去重
+        String next = result.get(0);
+        List<Long> ids = result.subList(1, result.size()).stream().distinct().map(Long::valueOf).collect(Collectors.toList());
+        return new Pair<>("0".equals(next) ? null : CursorUtils.encodeParts(scanFirst ? 0 : 1, next), ids);
+    }
+
+    /**
+     * 估算共同关注数，较小的集合很小时精确计算，否则用 HyperLogLog 按 |A∩B| = |A| + |B| - |A∪B| 估算，与集合大小无关
+     */
+    public long countCommonFollows(Long userId, Long otherId) {
+        String key1 = loadFollows(userId);
+        String key2 = loadFollows(otherId);
+        long size1 = size(key1);
+        long size2 = size(key2);
+        long min = Math.min(size1, size2);
+        if (min == 0) {
+            return 0;
+        }
+        // 1.较小的集合很小，读出全部成员后一次 SMISMEMBER 精确计算
+        if (min <= COMMON_EXACT_THRESHOLD) {
+            String small = size1 <= size2 ? key1 : key2;
+            String large = size1 <= size2 ? key2 : key1;
+            Set<String> members = stringRedisTemplate.opsForSet().members(small);
+            if (members == null || members.isEmpty()) {
+                return 0;
+            }
+            members.remove(EMPTY_MEMBER);
+            if (members.isEmpty()) {
+                return 0;
+            }
+            Map<Object, Boolean> isMember = stringRedisTemplate.opsForSet().isMember(large, members.toArray());
+            return isMember == null ? 0 : isMember.values().stream().filter(Boolean.TRUE::equals).count();
+        }
+        // 2.用 HyperLogLog 估算并集大小 PFCOUNT hll1 hll2
+        Long union = stringRedisTemplate.opsForHyperLogLog().size(loadFollowsHll(userId), loadFollowsHll(otherId));
+        long estimate = size1 + size2 - (union == null ? 0 : union);
+        return Math.max(0, Math.min(estimate, min));
+    }
+
+    // 集合大小，不包含占位成员
+    private long size(String key) {
+        Long size = stringRedisTemplate.opsForSet().size(key);
+        if (size == null || size == 0) {
+            return 0;
+        }
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, EMPTY_MEMBER)) ? size - 1 : size;
+    }
+
+    // 确保关注集合的 HyperLogLog 已构建：SSCAN 关注集合分批 PFADD 到临时key，再 RENAMENX
+    private String loadFollowsHll(Long userId) {
+        String key = FOLLOW_HLL_KEY + userId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return key;
+        }
+        String tmpKey = key + ":loading:" + UUID.randomUUID();
+        List<String> chunk = new ArrayList<>(LOAD_BATCH_SIZE);
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(FOLLOW_USER_KEY + userId,
+                ScanOptions.scanOptions().count(LOAD_BATCH_SIZE).build())) {
+            while (cursor.hasNext()) {
+                String member = cursor.next();
+                if (EMPTY_MEMBER.equals(member)) {
+                    continue;
+                }
+                chunk.add(member);
+                if (chunk.size() >= LOAD_BATCH_SIZE) {
+                    stringRedisTemplate.opsForHyperLogLog().add(tmpKey, chunk.toArray(new String[0]));
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            stringRedisTemplate.opsForHyperLogLog().add(tmpKey, chunk.toArray(new String[0]));
+        }
+        if (Boolean.TRUE.equals(stringRedisTemplate.renameIfAbsent(tmpKey, key))) {
+            stringRedisTemplate.expire(key, FOLLOW_HLL_TTL, TimeUnit.HOURS);
+        } else {
+            stringRedisTemplate.delete(tmpKey);
+        }
+        return key;
+    }
+
+    /**
+     * 查询尚未刷入数据库的粉丝数增量
+     */
+    public long pendingFans(Long userId) {
+        return fansCounter.pending(userId);
+    }
+
+    /**
+     * 查询尚未刷入数据库的关注数增量
+     */
+    public long pendingFollowee(Long userId) {
+        return followeeCounter.pending(userId);
+    }
+
+    /**
+     * 确保用户的关注集合已加载
+     *
+     * @return 关注集合key
+     */
+    public String loadFollows(Long userId) {
+        return load(FOLLOW_USER_KEY + userId, "user_id", "follow_user_id", userId, Follow::getFollowUserId, true);
+    }
+
+    /**
+     * 读取用户的关注对象，不包含占位成员：集合已加载时从Redis随机读取，否则直接查询数据库，不写入Redis
+     * <p>
+     * 供遍历大量用户的定时任务使用，避免把所有被访问用户的关注集合都复制到Redis
+     *
+     * @param limit 最多读取的数量，集合已加载时随机抽样，否则读取最早的关注
+     */
+    public Set<String> readFollows(Long userId, int limit) {
+        // 1.集合已加载，随机读取
+        Set<String> members = stringRedisTemplate.opsForSet().distinctRandomMembers(FOLLOW_USER_KEY + userId, limit);
+        if (members != null && !members.isEmpty()) {
+            members.remove(EMPTY_MEMBER);
+            return members;
+        }
+        // 2.按主键分批读取数据库
+        Set<String> follows = new HashSet<>();
+        long lastId = 0;
+        while (follows.size() < limit) {
+            List<Follow> list = followMapper.selectList(new QueryWrapper<Follow>()
+                    .select("id", "follow_user_id")
+                    .eq("user_id", userId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + Math.min(LOAD_BATCH_SIZE, limit - follows.size())));
+            for (Follow follow : list) {
+                follows.add(follow.getFollowUserId().toString());
+            }
+            if (list.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = list.get(list.size() - 1).getId();
+        }
+        // 3.叠加尚未写入数据库的变更
+        BiConsumer<String, Long> apply = (member, delta) -> {
+            if (delta > 0) {
+                follows.add(member);
+            } else if (delta < 0) {
+                follows.remove(member);
+            }
+        };
+        overlay(changes.getFlushingKey(), userId, true, apply);
+        overlay(changes.getPendingKey(), userId, true, apply);
+        return follows;
+    }
+
+    /**
+     * 确保用户的粉丝集合已加载
+     *
+     * @return 粉丝集合key
+     */
+    public String loadFollowers(Long userId) {
+        return load(FOLLOWER_USER_KEY + userId, "follow_user_id", "user_id", userId, Follow::getUserId, false);
+    }
+
+    private String load(String key, String column, String memberColumn, Long userId, Function<Follow, Long> memberGetter, boolean follows) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return key;
+        }
+        // 1.按主键分批读取数据库，写入临时集合，避免一次读取大V的所有粉丝
+        String tmpKey = key + ":loading:" + UUID.randomUUID();
+        stringRedisTemplate.opsForSet().add(tmpKey, EMPTY_MEMBER);
+        long lastId = 0;
+        while (true) {
+            List<Follow> list = followMapper.selectList(new QueryWrapper<Follow>()
+                    .select("id", memberColumn)
+                    .eq(column, userId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE));
+            if (list.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.opsForSet().add(tmpKey, list.stream().map(f -> memberGetter.apply(f).toString()).toArray(String[]::new));
+            if (list.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = list.get(list.size() - 1).getId();
+        }
+        // 2.叠加尚未写入数据库的变更，先叠加较早的 flushingKey
+        BiConsumer<String, Long> apply = (member, delta) -> {
+            if (delta > 0) {
+                stringRedisTemplate.opsForSet().add(tmpKey, member);
+            } else if (delta < 0) {
+                stringRedisTemplate.opsForSet().remove(tmpKey, member);
+            }
+        };
+        overlay(changes.getFlushingKey(), userId, follows, apply);
+        overlay(changes.getPendingKey(), userId, follows, apply);
+        // 3.集合不存在时才替换，并发加载时只保留一份
+        if (!Boolean.TRUE.equals(stringRedisTemplate.renameIfAbsent(tmpKey, key))) {
+            stringRedisTemplate.delete(tmpKey);
+        }
+        return key;
+    }
+
+    // HSCAN 变更hash中与该用户有关的记录，逐条交给 apply（成员, 增量）
+    private void overlay(String changesKey, Long userId, boolean follows, BiConsumer<String, Long> apply) {
+        String pattern = follows ? userId + ":*" : "*:" + userId;
+        try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash()
+                .scan(changesKey, ScanOptions.scanOptions().match(pattern).count(1000).build())) {
+            while (cursor.hasNext()) {
+                Map.Entry<Object, Object> entry = cursor.next();
+                String[] pair = entry.getKey().toString().split(":");
+                String member = follows ? pair[1] : pair[0];
+                apply.accept(member, Long.parseLong(entry.getValue().toString()));
+            }
+        }
+    }
+
+    /**
+     * 定时把关注关系变更、粉丝数和关注数批量写入数据库
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void flush() {
+        changes.flushFields(batch -> {
+            List<Follow> inserts = new ArrayList<>();
+            List<Follow> deletes = new ArrayList<>();
+            batch.forEach((field, delta) -> {
+                String[] pair = field.split(":");
+                Follow follow = new Follow();
+                follow.setUserId(Long.valueOf(pair[0]));
+                follow.setFollowUserId(Long.valueOf(pair[1]));
+                if (delta > 0) {
+                    inserts.add(follow);
+                } else {
+                    deletes.add(follow);
+                }
+            });
+            // 重试时重复写入也不会出错：已存在的关系被忽略，不存在的关系删除0行
+            if (!inserts.isEmpty()) {
+                followMapper.insertIgnoreBatch(inserts);
+            }
+            if (!deletes.isEmpty()) {
+                followMapper.deleteBatch(deletes);
+            }
+        });
+        fansCounter.flush(deltas -> userInfoMapper.incrFansBatch(deltas));
+        followeeCounter.flush(deltas -> userInfoMapper.incrFolloweeBatch(deltas));
+    }
+}
@@ -0,0 +1,244 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 可能认识的人：二度关注推荐
+ * <p>
+ * 对每个用户 u，统计 u 关注的人所关注的用户（不包括 u 自己和 u 已关注的用户）被多少个 u 的关注者共同关注，
+ * 按共同关注数取前 {@link #TOP_K} 个写入 recommend:{userId}，查询接口只需要一次 ZREVRANGE。
+ * 定时任务按用户id分批、多线程并行计算，内存有上限：每个关注对象最多读取 {@link #MAX_SECOND_DEGREE} 个成员，
+ * 候选人最多 {@link #MAX_CANDIDATES} 个，计数使用 {@link LongIntHashMap}。
+ * 未加载到Redis的关注集合直接查询数据库，不写入Redis，避免定时任务把整个关注图复制到Redis。
+ */
+@Slf4j
+@Component
+public class FriendRecommender {
+
+    /**
+     * 每个用户保留的推荐人数
+     */
+    public static final int TOP_K = 50;
+
+    /**
+     * 每个用户最多使用的关注对象数量
+     */
+    private static final int MAX_FOLLOWS = 500;
+
+    /**
+     * 每个关注对象最多读取的关注成员数量，超过时 SRANDMEMBER 随机抽样
+     */
+    private static final int MAX_SECOND_DEGREE = 1000;
+
+    /**
+     * 单个用户的候选人数量上限
+     */
+    private static final int MAX_CANDIDATES = 100_000;
+
+    /**
+     * 每批处理的用户数量
+     */
+    private static final int USER_BATCH_SIZE = 200;
+
+    /**
+     * 一次管道读取的集合数量
+     */
+    private static final int PIPELINE_SIZE = 100;
+
+    private static final int THREADS = 4;
+
+    // 计算线程池，同时提交的批次由信号量限制，避免任务堆积占用内存
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    private final Semaphore inFlight = new Semaphore(THREADS * 2);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private FollowGraph followGraph;
+
+    /**
+     * 查询推荐的用户 ZREVRANGE recommend:{userId} 0 count-1
+     */
+    public List<Long> recommend(Long userId, int count) {
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(USER_RECOMMEND_KEY + userId, 0, count - 1);
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            result.add(Long.valueOf(id));
+        }
+        return result;
+    }
+
+    /**
+     * 每天凌晨重新计算所有用户的推荐
+     */
+    @Scheduled(cron = "0 0 3 * * ?")
+    public void computeAll() {
+        // 多个节点只需要一个执行
+        RLock lock = redissonClient.getLock("lock:" + USER_RECOMMEND_KEY + "job");
+        if (!lock.tryLock()) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            // 1.按主键分批读取用户id，每批提交到线程池
+            List<Future<?>> futures = new ArrayList<>();
+            int failed = 0;
+            long lastId = 0;
+            while (true) {
+                List<User> users = userMapper.selectList(new QueryWrapper<User>()
+                        .select("id").gt("id", lastId).orderByAsc("id").last("LIMIT " + USER_BATCH_SIZE));
+                if (users.isEmpty()) {
+                    break;
+                }
+                lastId = users.get(users.size() - 1).getId();
+                inFlight.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        for (User user : users) {
+                            compute(user.getId());
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+                failed += reap(futures, false);
+            }
+            // 2.等待所有批次完成
+            failed += reap(futures, true);
+            log.info("二度关注推荐计算完成，失败{}批，耗时{}ms", failed, System.currentTimeMillis() - begin);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 取出已完成（wait 为 true 时等待全部）批次的结果，记录失败的批次，返回失败的数量
+    private static int reap(List<Future<?>> futures, boolean wait) throws InterruptedException {
+        int failed = 0;
+        Iterator<Future<?>> it = futures.iterator();
+        while (it.hasNext()) {
+            Future<?> future = it.next();
+            if (!wait && !future.isDone()) {
+                continue;
+            }
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failed++;
+                log.error("二度关注推荐批次计算失败", e.getCause());
+            }
+            it.remove();
+        }
+        return failed;
+    }
+
+    /**
+     * 计算单个用户的推荐并写入Redis
+     */
+    public void compute(Long userId) {
+        String key = USER_RECOMMEND_KEY + userId;
+        // 1.读取用户的全部关注对象，用来排除已关注的用户
+        Set<String> follows = followGraph.readFollows(userId, Integer.MAX_VALUE);
+        if (follows.isEmpty()) {
+            stringRedisTemplate.delete(key);
+            return;
+        }
+        List<String> sources = new ArrayList<>(follows);
+        if (sources.size() > MAX_FOLLOWS) {
+            Collections.shuffle(sources);
+            sources = sources.subList(0, MAX_FOLLOWS);
+        }
+        // 2.分批用管道读取关注对象的关注集合，统计二度关注的共同关注数
+        LongIntHashMap counts = new LongIntHashMap(1024);
+        for (int i = 0; i < sources.size(); i += PIPELINE_SIZE) {
+            List<String> batch = sources.subList(i, Math.min(i + PIPELINE_SIZE, sources.size()));
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String followId : batch) {
+                    // 集合不超过 count 时返回全部成员，否则随机抽样，单次读取的数据量有上限
+                    conn.sRandMember(FOLLOW_USER_KEY + followId, MAX_SECOND_DEGREE);
+                }
+                return null;
+            });
+            for (int j = 0; j < results.size(); j++) {
+                Collection<?> members = (Collection<?>) results.get(j);
+                if (members == null || members.isEmpty()) {
+                    // 集合未加载，直接查询数据库，不写入Redis
+                    members = followGraph.readFollows(Long.valueOf(batch.get(j)), MAX_SECOND_DEGREE);
+                }
+                for (Object member : members) {
+                    String candidate = member.toString();
+                    if (FollowGraph.EMPTY_MEMBER.equals(candidate) || follows.contains(candidate)) {
+                        continue;
+                    }
+                    long candidateId = Long.parseLong(candidate);
+                    if (candidateId == userId) {
+                        continue;
+                    }
+                    // 候选人达到上限后只累加已有的候选人
+                    if (counts.size() < MAX_CANDIDATES || counts.containsKey(candidateId)) {
+                        counts.addTo(candidateId, 1);
+                    }
+                }
+            }
+        }
+        if (counts.isEmpty()) {
+            stringRedisTemplate.delete(key);
+            return;
+        }
+        // 3.小顶堆保留共同关注数最多的 TOP_K 个候选人
+        PriorityQueue<long[]> heap = new PriorityQueue<>(TOP_K + 1, Comparator.comparingLong(e -> e[1]));
+        counts.forEach((candidateId, count) -> {
+            if (heap.size() < TOP_K) {
+                heap.offer(new long[]{candidateId, count});
+            } else if (count > heap.peek()[1]) {
+                heap.poll();
+                heap.offer(new long[]{candidateId, count});
+            }
+        });
+        // 4.写入临时key后 RENAME，查询时不会读到写了一半的结果
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(heap.size());
+        for (long[] e : heap) {
+            tuples.add(new DefaultTypedTuple<>(String.valueOf(e[0]), (double) e[1]));
+        }
+        String tmpKey = key + ":tmp";
+        stringRedisTemplate.opsForZSet().add(tmpKey, tuples);
+        stringRedisTemplate.rename(tmpKey, key);
+        stringRedisTemplate.expire(key, USER_RECOMMEND_TTL, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+}
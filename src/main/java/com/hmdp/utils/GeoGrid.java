@@ -0,0 +1,267 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+
+/**
+ * 不可变的经纬度网格索引
+ * <p>
+ * 坐标按 {@link #CELL_DEGREES} 度划分网格，所有点按网格排序后存放在基本类型数组中，
+ * cellKeys/cellStarts 记录每个网格在数组中的起始位置，查询时只遍历半径覆盖的网格，不创建对象。
+ * 修改时复制出新的网格（写时复制），读线程不需要加锁。
+ */
+public class GeoGrid {
+
+    /**
+     * 网格大小（度），约1.1公里
+     */
+    public static final double CELL_DEGREES = 0.01;
+
+    /**
+     * 每度纬度对应的距离（米）
+     */
+    private static final double METERS_PER_DEGREE = 111_320D;
+
+    public static final GeoGrid EMPTY = build(new long[0], new double[0], new double[0]);
+
+    // 网格key，升序；cellStarts[i] ~ cellStarts[i+1] 为第 i 个网格的点
+    private final long[] cellKeys;
+    private final int[] cellStarts;
+    // 按网格排序的点
+    private final long[] ids;
+    private final double[] xs;
+    private final double[] ys;
+
+    private GeoGrid(long[] cellKeys, int[] cellStarts, long[] ids, double[] xs, double[] ys) {
+        this.cellKeys = cellKeys;
+        this.cellStarts = cellStarts;
+        this.ids = ids;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    /**
+     * 构建网格
+     *
+     * @param ids 点的id，不能重复
+     * @param xs  经度
+     * @param ys  纬度
+     */
+    public static GeoGrid build(long[] ids, double[] xs, double[] ys) {
+        int n = ids.length;
+        // 1.按 (网格key, 序号) 排序，网格key放在高位，序号放在低位
+        long[] keys = new long[n];
+        long[][] sortKeys = new long[n][];
+        for (int i = 0; i < n; i++) {
+            keys[i] = cellKey(cellOf(xs[i]), cellOf(ys[i]));
+            sortKeys[i] = new long[]{keys[i], i};
+        }
+        Arrays.sort(sortKeys, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        // 2.按排序结果复制点，并记录每个网格的起始位置
+        long[] sortedIds = new long[n];
+        double[] sortedXs = new double[n];
+        double[] sortedYs = new double[n];
+        long[] cellKeys = new long[n];
+        int[] cellStarts = new int[n + 1];
+        int cells = 0;
+        for (int i = 0; i < n; i++) {
+            int j = (int) sortKeys[i][1];
+            sortedIds[i] = ids[j];
+            sortedXs[i] = xs[j];
+            sortedYs[i] = ys[j];
+            if (cells == 0 || cellKeys[cells - 1] != keys[j]) {
+                cellKeys[cells] = keys[j];
+                cellStarts[cells] = i;
+                cells++;
+            }
+        }
+        cellStarts[cells] = n;
+        return new GeoGrid(Arrays.copyOf(cellKeys, cells), Arrays.copyOf(cellStarts, cells + 1), sortedIds, sortedXs, sortedYs);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * 复制出一个新增或更新了一个点的网格
+     */
+    public GeoGrid with(long id, double x, double y) {
+        int index = indexOf(id);
+        long[] newIds = index < 0 ? Arrays.copyOf(ids, ids.length + 1) : ids.clone();
+        double[] newXs = index < 0 ? Arrays.copyOf(xs, xs.length + 1) : xs.clone();
+        double[] newYs = index < 0 ? Arrays.copyOf(ys, ys.length + 1) : ys.clone();
+        int i = index < 0 ? ids.length : index;
+        newIds[i] = id;
+        newXs[i] = x;
+        newYs[i] = y;
+        return build(newIds, newXs, newYs);
+    }
+
+    /**
+     * 复制出一个删除了一个点的网格，点不存在时返回自身
+     */
+    public GeoGrid without(long id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return this;
+        }
+        long[] newIds = new long[ids.length - 1];
+        double[] newXs = new double[ids.length - 1];
+        double[] newYs = new double[ids.length - 1];
+        System.arraycopy(ids, 0, newIds, 0, index);
+        System.arraycopy(xs, 0, newXs, 0, index);
+        System.arraycopy(ys, 0, newYs, 0, index);
+        System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+        System.arraycopy(xs, index + 1, newXs, index, ids.length - index - 1);
+        System.arraycopy(ys, index + 1, newYs, index, ids.length - index - 1);
+        return build(newIds, newXs, newYs);
+    }
+
+    /**
+     * 查询半径内距离最近的 k 个点，按 (距离, id) 升序写入 outIds、outDistances
+     *
+     * @param radius 半径（米）
+     * @return 写入的点数
+     */
+    public int nearest(double x, double y, double radius, int k, long[] outIds, double[] outDistances) {
+        return nearestAfter(x, y, radius, -1, 0, k, outIds, outDistances);
+    }
+
+    /**
+     * 按 (距离, id) 升序，查询半径内排在 (afterDistance, afterId) 之后的 k 个点，用于键集分页
+     *
+     * @param afterDistance 上一页最后一个点的距离，第一页传 -1
+     * @param afterId       上一页最后一个点的id
+     * @return 写入的点数
+     */
+    public int nearestAfter(double x, double y, double radius, double afterDistance, long afterId,
+                            int k, long[] outIds, double[] outDistances) {
+        if (k <= 0 || ids.length == 0) {
+            return 0;
+        }
+        // 1.半径覆盖的网格范围，经度方向的网格宽度随纬度缩小
+        int cx = cellOf(x);
+        int cy = cellOf(y);
+        double cellHeight = CELL_DEGREES * METERS_PER_DEGREE;
+        double cos = Math.max(Math.cos(Math.toRadians(y)), 0.01);
+        double cellWidth = cellHeight * cos;
+        int dy = (int) Math.ceil(radius / cellHeight);
+        int dx = (int) Math.ceil(radius / cellWidth);
+        // 经纬度差换算成米的近似系数，用来在计算精确距离之前过滤
+        double kx = METERS_PER_DEGREE * cos;
+        // 2.由近到远逐圈遍历网格，用大顶堆保留最近的 k 个；堆满后更外圈的网格不可能更近时提前结束
+        int size = 0;
+        double cellMin = Math.min(cellWidth, cellHeight);
+        // 一圈中最远的点不超过 (ring + 1) 个网格对角线，整圈都在上一页之前时跳过（留1%余量）
+        double cellDiagonal = Math.hypot(cellWidth, cellHeight);
+        for (int ring = 0, rings = Math.max(dx, dy); ring <= rings; ring++) {
+            if (size == k && (ring - 1) * cellMin > outDistances[0]) {
+                break;
+            }
+            if ((ring + 1) * cellDiagonal < afterDistance * 0.99) {
+                continue;
+            }
+            for (int i = Math.max(cx - ring, cx - dx); i <= Math.min(cx + ring, cx + dx); i++) {
+                // 第 ring 圈：首尾两列取整列，中间的列只取上下两个网格
+                boolean edge = i == cx - ring || i == cx + ring;
+                int step = edge ? 1 : 2 * ring;
+                for (int j = cy - ring; j <= cy + ring; j += Math.max(step, 1)) {
+                    if (j < cy - dy || j > cy + dy) {
+                        continue;
+                    }
+                    int cell = Arrays.binarySearch(cellKeys, cellKey(i, j));
+                    if (cell < 0) {
+                        continue;
+                    }
+                    for (int p = cellStarts[cell]; p < cellStarts[cell + 1]; p++) {
+                        double limit = size < k ? radius : outDistances[0];
+                        double ex = (xs[p] - x) * kx;
+                        double ey = (ys[p] - y) * METERS_PER_DEGREE;
+                        // 近似距离比上限大1%以上时跳过，不计算三角函数
+                        if (ex * ex + ey * ey > limit * limit * 1.0201) {
+                            continue;
+                        }
+                        double distance = GeoUtils.distance(x, y, xs[p], ys[p]);
+                        if (distance > limit || !greater(distance, ids[p], afterDistance, afterId)) {
+                            continue;
+                        }
+                        if (size < k) {
+                            outIds[size] = ids[p];
+                            outDistances[size] = distance;
+                            siftUp(outIds, outDistances, size++);
+                        } else if (greater(outDistances[0], outIds[0], distance, ids[p])) {
+                            outIds[0] = ids[p];
+                            outDistances[0] = distance;
+                            siftDown(outIds, outDistances, 0, size);
+                        }
+                    }
+                }
+            }
+        }
+        // 3.堆排序，依次把最远的点换到末尾
+        for (int end = size - 1; end > 0; end--) {
+            swap(outIds, outDistances, 0, end);
+            siftDown(outIds, outDistances, 0, end);
+        }
+        return size;
+    }
+
+    private int indexOf(long id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int cellOf(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long cellKey(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private static void siftUp(long[] ids, double[] distances, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!greater(distances[i], ids[i], distances[parent], ids[parent])) {
+                return;
+            }
+            swap(ids, distances, parent, i);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(long[] ids, double[] distances, int i, int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && greater(distances[child + 1], ids[child + 1], distances[child], ids[child])) {
+                child++;
+            }
+            if (!greater(distances[child], ids[child], distances[i], ids[i])) {
+                return;
+            }
+            swap(ids, distances, i, child);
+            i = child;
+        }
+    }
+
+    // 按 (距离, id) 比较
+    private static boolean greater(double d1, long id1, double d2, long id2) {
+        return d1 > d2 || (d1 == d2 && id1 > id2);
+    }
+
+    private static void swap(long[] ids, double[] distances, int i, int j) {
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+}
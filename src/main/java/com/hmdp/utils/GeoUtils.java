@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/**
+ * 经纬度距离计算，与Redis GEODIST 使用相同的地球半径和 haversine 公式
+ */
+public class GeoUtils {
+
+    private static final double EARTH_RADIUS_IN_METERS = 6372797.560856;
+
+    /**
+     * 两点之间的距离（米）
+     *
+     * @param x1 经度
+     * @param y1 纬度
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2.0 * EARTH_RADIUS_IN_METERS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+}
@@ -0,0 +1,220 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import static com.hmdp.utils.RedisConstants.UPLOAD_IMAGE_REF_KEY;
+
+/**
+ * 按内容寻址的图片存储
+ * <p>
+ * 上传的图片边读边计算 SHA-256，通过 FileChannel 写入临时文件，写完后以摘要命名移动到 /blogs/{d1}/{d2}/ 下，
+ * d1、d2 为摘要的前两个十六进制位。相同内容的图片只保存一份，文件已存在时直接删除临时文件。
+ * 同一文件可能被多个用户、多篇笔记上传，每次上传的引用保存在 hash upload:image:refs:{文件名} 中（用户id -> 上传次数），
+ * 用户删除图片时只减少自己的一次引用，所有引用都删除后才删除文件；同一文件的保存和删除用分布式锁互斥。
+ * 删除时校验文件名，只能删除 /blogs/ 下按摘要命名的图片和原来按UUID命名的图片。
+ * 16×16 个目录在启动时创建一次。
+ */
+@Slf4j
+@Component
+public class ImageStore {
+
+    private static final String BLOG_DIR = "blogs";
+
+    private static final String TEMP_DIR = ".tmp";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern SUFFIX_PATTERN = Pattern.compile("[A-Za-z0-9]{1,10}");
+
+    /**
+     * 按摘要命名的图片，以及原来按UUID命名的图片
+     */
+    private static final Pattern HASH_NAME_PATTERN = Pattern.compile("/blogs/\\d{1,2}/\\d{1,2}/[0-9a-f]{64}(\\.[a-z0-9]{1,10})?");
+    private static final Pattern LEGACY_NAME_PATTERN = Pattern.compile("/blogs/\\d{1,2}/\\d{1,2}/[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}\\.[A-Za-z0-9]{0,10}");
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private Path root;
+
+    private Path tempDir;
+
+    // 上传统计
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder uploadBytes = new LongAdder();
+    private final LongAdder uploadNanos = new LongAdder();
+    private final LongAdder dedupHits = new LongAdder();
+    private final LongAdder dedupBytes = new LongAdder();
+
+    @PostConstruct
+    private void init() throws IOException {
+        root = Paths.get(SystemConstants.IMAGE_UPLOAD_DIR);
+        // 1.创建 16×16 个目录，上传时不再判断目录是否存在
+        for (int d1 = 0; d1 < 16; d1++) {
+            for (int d2 = 0; d2 < 16; d2++) {
+                Files.createDirectories(root.resolve(BLOG_DIR).resolve(String.valueOf(d1)).resolve(String.valueOf(d2)));
+            }
+        }
+        // 2.临时文件与图片在同一个目录树下，移动时不需要跨文件系统复制
+        tempDir = Files.createDirectories(root.resolve(BLOG_DIR).resolve(TEMP_DIR));
+    }
+
+    /**
+     * 保存图片
+     *
+     * @param in               图片内容
+     * @param originalFilename 原始文件名，用来获取后缀
+     * @param userId           上传的用户
+     * @return 相对于上传目录的文件名，格式为 /blogs/{d1}/{d2}/{sha256}.{suffix}
+     */
+    public String store(InputStream in, String originalFilename, Long userId) throws IOException {
+        long begin = System.nanoTime();
+        MessageDigest digest = sha256();
+        Path temp = Files.createTempFile(tempDir, "upload", null);
+        long size = 0;
+        try {
+            // 1.边读边计算摘要并写入临时文件
+            try (ReadableByteChannel source = Channels.newChannel(in);
+                 FileChannel target = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer.array(), 0, buffer.limit());
+                    while (buffer.hasRemaining()) {
+                        size += target.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+            // 2.以摘要命名，文件已存在说明内容相同，不再保存
+            String hash = HexUtil.encodeHexStr(digest.digest());
+            int d1 = Character.digit(hash.charAt(0), 16);
+            int d2 = Character.digit(hash.charAt(1), 16);
+            String suffix = StrUtil.subAfter(originalFilename, ".", true);
+            String fileName = SUFFIX_PATTERN.matcher(suffix).matches()
+                    ? StrUtil.format("/{}/{}/{}/{}.{}", BLOG_DIR, d1, d2, hash, suffix.toLowerCase())
+                    : StrUtil.format("/{}/{}/{}/{}", BLOG_DIR, d1, d2, hash);
+            Path file = root.resolve(fileName.substring(1));
+            // 3.记录引用并保存文件，与删除互斥，避免刚确认文件存在就被删除
+            RLock lock = redissonClient.getLock("lock:" + UPLOAD_IMAGE_REF_KEY + fileName);
+            lock.lock();
+            try {
+                stringRedisTemplate.opsForHash().increment(UPLOAD_IMAGE_REF_KEY + fileName, userId.toString(), 1);
+                if (Files.exists(file)) {
+                    dedupHits.increment();
+                    dedupBytes.add(size);
+                } else {
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return fileName;
+        } finally {
+            Files.deleteIfExists(temp);
+            uploads.increment();
+            uploadBytes.add(size);
+            uploadNanos.add(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 文件名是否为可以删除的图片：规范化后位于 /blogs/ 下，且按摘要或UUID命名
+     */
+    public boolean isImageName(String fileName) {
+        if (fileName == null) {
+            return false;
+        }
+        Path path = root.resolve(StrUtil.removePrefix(fileName, "/")).normalize();
+        if (!path.startsWith(root.resolve(BLOG_DIR))) {
+            return false;
+        }
+        return HASH_NAME_PATTERN.matcher(fileName).matches() || LEGACY_NAME_PATTERN.matcher(fileName).matches();
+    }
+
+    /**
+     * 减少用户对图片的一次引用，所有引用都删除后删除文件；没有引用记录的UUID命名的旧文件直接删除
+     *
+     * @param fileName 通过 {@link #isImageName} 校验的文件名
+     * @return 文件是否被删除
+     */
+    public boolean delete(String fileName, Long userId) throws IOException {
+        if (!isImageName(fileName)) {
+            return false;
+        }
+        Path file = root.resolve(fileName.substring(1)).normalize();
+        String key = UPLOAD_IMAGE_REF_KEY + fileName;
+        RLock lock = redissonClient.getLock("lock:" + key);
+        lock.lock();
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                // 没有引用记录：只有旧文件可以直接删除，按摘要命名的文件一定有引用记录
+                return LEGACY_NAME_PATTERN.matcher(fileName).matches() && Files.deleteIfExists(file);
+            }
+            // 只能减少自己的引用，同一用户上传多次时每次删除减少一次
+            String field = userId.toString();
+            Object count = stringRedisTemplate.opsForHash().get(key, field);
+            if (count == null) {
+                return false;
+            }
+            if (Long.parseLong(count.toString()) > 1) {
+                stringRedisTemplate.opsForHash().increment(key, field, -1);
+                return false;
+            }
+            // hash为空时Redis自动删除key
+            stringRedisTemplate.opsForHash().delete(key, field);
+            Long refs = stringRedisTemplate.opsForHash().size(key);
+            return (refs == null || refs == 0) && Files.deleteIfExists(file);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 上传统计：次数、字节数、吞吐量，以及去重节省的空间
+     */
+    public Map<String, Object> stats() {
+        long bytes = uploadBytes.sum();
+        long nanos = uploadNanos.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("uploads", uploads.sum());
+        stats.put("uploadBytes", bytes);
+        stats.put("throughputMBps", nanos == 0 ? 0D : bytes / 1024D / 1024D / (nanos / 1e9));
+        stats.put("dedupHits", dedupHits.sum());
+        stats.put("dedupBytes", dedupBytes.sum());
+        return stats;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.RandomUtil;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 短信验证码的发送限流和校验次数限制
+ * <p>
+ * 发送时一次lua脚本完成：验证失败锁定检查、同一手机号的冷却时间、手机号/IP/全站三个 zset 滑动窗口的次数上限、保存验证码。
+ * 校验时一次lua脚本完成：失败次数累加、达到上限后作废验证码并锁定，代替原来的 GET，登录不增加Redis往返。
+ * 本地再用一个LRU缓存记录冷却中的手机号，冷却期内的重复请求不访问Redis。
+ */
+@Component
+public class LoginGuard {
+
+    /**
+     * 发送结果：成功、手机号冷却中、手机号超限、IP超限、全站超限、验证失败次数过多被锁定
+     */
+    public static final int SEND_OK = 0;
+    public static final int SEND_COOLDOWN = 1;
+    public static final int SEND_PHONE_LIMITED = 2;
+    public static final int SEND_IP_LIMITED = 3;
+    public static final int SEND_GLOBAL_LIMITED = 4;
+    public static final int SEND_LOCKED = 5;
+
+    /**
+     * 校验结果：通过、验证码错误、验证码不存在或已过期、已锁定
+     */
+    public static final int VERIFY_OK = 0;
+    public static final int VERIFY_WRONG = 1;
+    public static final int VERIFY_EXPIRED = 2;
+    public static final int VERIFY_LOCKED = 3;
+
+    /**
+     * 同一手机号两次发送的最小间隔（毫秒）
+     */
+    private static final long COOLDOWN_MILLIS = 60 * 1000L;
+
+    /**
+     * 滑动窗口大小（毫秒）和窗口内的发送上限
+     */
+    private static final long PHONE_WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int PHONE_MAX = 5;
+    private static final long IP_WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int IP_MAX = 20;
+    private static final long GLOBAL_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int GLOBAL_MAX = 1000;
+
+    /**
+     * 验证码最多失败次数，以及达到后的锁定时间（分钟）
+     */
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long LOCK_MINUTES = 15L;
+
+    private static final DefaultRedisScript<List> SEND_SCRIPT;
+    private static final DefaultRedisScript<List> VERIFY_SCRIPT;
+    static {
+        SEND_SCRIPT = new DefaultRedisScript<>();
+        SEND_SCRIPT.setLocation(new ClassPathResource("sms_send.lua"));
+        SEND_SCRIPT.setResultType(List.class);
+        VERIFY_SCRIPT = new DefaultRedisScript<>();
+        VERIFY_SCRIPT.setLocation(new ClassPathResource("code_verify.lua"));
+        VERIFY_SCRIPT.setResultType(List.class);
+    }
+
+    // 手机号 -> 冷却结束时间，本地预过滤
+    private final LRUCache<String, Long> cooldowns = CacheUtil.newLRUCache(10000, COOLDOWN_MILLIS);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 限流通过时保存验证码
+     *
+     * @return 发送结果和需要等待的毫秒数
+     */
+    public long[] trySend(String phone, String ip, String code) {
+        long now = System.currentTimeMillis();
+        // 1.本地预过滤冷却中的手机号
+        Long cooldownUntil = cooldowns.get(phone, false);
+        if (cooldownUntil != null && cooldownUntil > now) {
+            return new long[]{SEND_COOLDOWN, cooldownUntil - now};
+        }
+        // 2.执行lua脚本，限流和保存验证码是原子的
+        List<?> result = stringRedisTemplate.execute(SEND_SCRIPT,
+                Arrays.asList(LOGIN_CODE_KEY + phone, SMS_LIMIT_PHONE_KEY + phone, SMS_LIMIT_IP_KEY + ip,
+                        SMS_LIMIT_GLOBAL_KEY, LOGIN_ATTEMPT_KEY + phone),
+                String.valueOf(now), code, String.valueOf(TimeUnit.MINUTES.toSeconds(LOGIN_CODE_TTL)),
+                String.valueOf(COOLDOWN_MILLIS),
+                String.valueOf(PHONE_WINDOW_MILLIS), String.valueOf(PHONE_MAX),
+                String.valueOf(IP_WINDOW_MILLIS), String.valueOf(IP_MAX),
+                String.valueOf(GLOBAL_WINDOW_MILLIS), String.valueOf(GLOBAL_MAX),
+                now + ":" + RandomUtil.randomString(8), String.valueOf(MAX_ATTEMPTS));
+        long[] status = toStatus(result);
+        // 3.发送成功或冷却中，记录本地冷却结束时间
+        if (status[0] == SEND_OK) {
+            cooldowns.put(phone, now + COOLDOWN_MILLIS);
+        } else if (status[0] == SEND_COOLDOWN) {
+            cooldowns.put(phone, now + status[1], status[1]);
+        }
+        return status;
+    }
+
+    /**
+     * 校验验证码，通过后验证码作废
+     *
+     * @return 校验结果，以及剩余可尝试次数（验证码错误时）或剩余锁定毫秒数（已锁定时）
+     */
+    public long[] verify(String phone, String code) {
+        List<?> result = stringRedisTemplate.execute(VERIFY_SCRIPT,
+                Arrays.asList(LOGIN_CODE_KEY + phone, LOGIN_ATTEMPT_KEY + phone),
+                code == null ? "" : code, String.valueOf(MAX_ATTEMPTS), String.valueOf(TimeUnit.MINUTES.toSeconds(LOCK_MINUTES)));
+        return toStatus(result);
+    }
+
+    private static long[] toStatus(List<?> result) {
+        return new long[]{((Number) result.get(0)).longValue(), ((Number) result.get(1)).longValue()};
+    }
+}
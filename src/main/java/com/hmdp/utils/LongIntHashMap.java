@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+
+/**
+ * long -> int 的开放寻址哈希表，用于大量计数时代替 HashMap&lt;Long, Integer&gt;，避免装箱和 Entry 对象的内存开销
+ * <p>
+ * key 0 用来标记空槽，不能作为 key 使用；非线程安全。
+ */
+public class LongIntHashMap {
+
+    /**
+     * 元素数量超过容量的该比例时扩容
+     */
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        allocate(tableSize(expectedSize));
+    }
+
+    /**
+     * 把 key 对应的值加上 delta，key 不存在时视为 0
+     *
+     * @return 相加后的值
+     */
+    public int addTo(long key, int delta) {
+        checkKey(key);
+        int slot = slot(key);
+        if (keys[slot] == key) {
+            return values[slot] += delta;
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return delta;
+    }
+
+    /**
+     * 查询 key 对应的值，key 不存在时返回 0
+     */
+    public int get(long key) {
+        checkKey(key);
+        int slot = slot(key);
+        return keys[slot] == key ? values[slot] : 0;
+    }
+
+    public boolean containsKey(long key) {
+        checkKey(key);
+        return keys[slot(key)] == key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    /**
+     * 遍历所有元素，顺序不确定
+     */
+    public void forEach(LongIntConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface LongIntConsumer {
+        void accept(long key, int value);
+    }
+
+    // 线性探测，返回 key 所在的槽或第一个空槽
+    private int slot(long key) {
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // 打散连续的id，避免线性探测时聚集
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void rehash(int newSize) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newSize);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int tableSize) {
+        keys = new long[tableSize];
+        values = new int[tableSize];
+        mask = tableSize - 1;
+        resizeAt = (int) (tableSize * LOAD_FACTOR);
+    }
+
+    private static int tableSize(int expectedSize) {
+        int size = 16;
+        while (size * LOAD_FACTOR < expectedSize) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static void checkKey(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("key不能为0");
+        }
+    }
+}
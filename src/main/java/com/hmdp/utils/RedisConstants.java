@@ -3,21 +3,68 @@ package com.hmdp.utils;
 public class RedisConstants {
     public static final String LOGIN_CODE_KEY = "login:code:";
     public static final Long LOGIN_CODE_TTL = 2L;
+    public static final String LOGIN_ATTEMPT_KEY = "login:attempt:";
+    public static final String SMS_LIMIT_PHONE_KEY = "sms:limit:phone:";
+    public static final String SMS_LIMIT_IP_KEY = "sms:limit:ip:";
+    public static final String SMS_LIMIT_GLOBAL_KEY = "sms:limit:global";
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_INVALIDATE_CHANNEL = "login:invalidate";
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_VOUCHER_KEY = "cache:voucher:shop:";
+    public static final Long CACHE_VOUCHER_TTL = 30L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final int BLOG_LIKED_SHARD_BITS = 10;
+    public static final int BLOG_LIKED_SET_MAX = 64;
+    public static final String BLOG_LIKED_PENDING_KEY = "blog:liked:pending";
+    public static final String BLOG_LIKED_MIGRATED_KEY = "blog:liked:migrated";
+    public static final String BLOG_LIKERS_KEY = "blog:likers:";
+    public static final int BLOG_LIKERS_WINDOW_SIZE = 10;
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_LANDMARK_KEY = "blog:hot:landmark";
+    public static final String CACHE_BLOG_HOT_KEY = "cache:blog:hot";
+    public static final Long CACHE_BLOG_HOT_TTL = 5L;
+    public static final String BLOG_COMMENTS_KEY = "blog:comments:";
+    public static final Long BLOG_COMMENTS_TTL = 30L;
+    public static final int BLOG_COMMENTS_WINDOW_SIZE = 200;
+    public static final String LOCK_BLOG_COMMENTS_KEY = "lock:blog:comments:";
+    public static final String BLOG_COMMENTS_PENDING_KEY = "blog:comments:pending";
+    public static final String CACHE_COMMENT_KEY = "cache:comment:";
+    public static final Long CACHE_COMMENT_TTL = 10L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_BLOG_TTL = 10L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String CACHE_SHOP_GEO_KEY = "cache:shop:geo:";
+    public static final Long CACHE_SHOP_GEO_TTL = 5L;
+    public static final String SHOP_RANK_KEY = "shop:rank:";
+    public static final Long SHOP_RANK_TTL = 24L;
+    public static final String SHOP_RANK_VERSION_KEY = "shop:rank:version:";
+    public static final String UPLOAD_IMAGE_REF_KEY = "upload:image:refs:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String USER_SIGN_STREAK_KEY = "sign:streak:";
+    public static final String SIGN_DAY_KEY = "sign:day:";
+    public static final Long SIGN_DAY_TTL = 400L;
+    public static final String SIGN_WEEK_KEY = "sign:week:";
+    public static final Long SIGN_WEEK_TTL = 10L;
     public static final String FOLLOW_USER_KEY = "follows:";
+    public static final String FOLLOWER_USER_KEY = "followers:";
+    public static final String FOLLOW_HLL_KEY = "follows:hll:";
+    public static final String USER_RECOMMEND_KEY = "recommend:";
+    public static final Long USER_RECOMMEND_TTL = 48L;
+    public static final String FOLLOW_PENDING_KEY = "follow:pending";
+    public static final String USER_FANS_PENDING_KEY = "user:fans:pending";
+    public static final String USER_FOLLOWEE_PENDING_KEY = "user:followee:pending";
 }
@@ -1,27 +1,24 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
-import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
 
 /**
- * 这个拦截器不起登录校验功能，也不会对没有token认证的请求进行拦截，它的作用只是在所有请求到来时刷新redis中数据的有效期
+ * 这个拦截器不起登录校验功能，也不会对没有token认证的请求进行拦截，它的作用只是在所有请求到来时登记如何解析当前用户，
+ * 只有业务代码真正获取用户时才查询会话并刷新redis中数据的有效期，公开接口的匿名访问不需要访问redis
  */
 public class RefreshTokenInterceptor implements HandlerInterceptor {
 
-    private StringRedisTemplate stringRedisTemplate;
+    private SessionStore sessionStore;
+
+    private SignedTokens signedTokens;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(SessionStore sessionStore, SignedTokens signedTokens) {
+        this.sessionStore = sessionStore;
+        this.signedTokens = signedTokens;
     }
 
     @Override
@@ -32,32 +29,17 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
             return true;
         }
 
-        // 2、基于token获取redis中的用户
-        String key = LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
-
-        // 3、判断用户是否存在
-        if (userMap.isEmpty()) {
-            return true;
-        }
-
-        // 此时redis中已经可以找到包含token校验认证的数据了↓
-
-        // 4、将查询到的 Hash 数据转为 userDTO 对象存储
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-
-        // 5、保存用户到ThreadLocal中进行线程隔离
-        UserHolder.saveUser(userDTO);
+        // 2、保存用户解析方式到ThreadLocal中进行线程隔离，第一次调用 UserHolder.getUser() 时才解析
+        // 签名token只校验签名，不访问redis；随机token优先读取本地缓存，剩余有效期不足时才刷新redis中token的有效期
+        UserHolder.saveResolver(() -> signedTokens.isSigned(token) ? signedTokens.verify(token) : sessionStore.get(token));
 
-        // 6、刷新token的有效期
-        stringRedisTemplate.expire(key, 30L, TimeUnit.MINUTES);
-
-        // 7、放行
+        // 3、放行
         return true;
     }
 
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
-
+        // 请求结束后清除用户，避免线程池中的线程被下一个请求复用时读到上一个用户
+        UserHolder.removeUser();
     }
 }
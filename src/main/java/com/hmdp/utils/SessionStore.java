@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录会话存储
+ * <p>
+ * 会话保存在Redis hash login:token:{token} 中，本地再用一个短时的LRU缓存 token -> (UserDTO, 过期时间)，
+ * 大多数请求不需要访问Redis。本地缓存未命中时一次管道执行 HGETALL + PTTL，得到会话和剩余有效期；
+ * 只有剩余有效期低于 {@link #SESSION_REFRESH_THRESHOLD_MINUTES} 分钟时才 EXPIRE 续期，
+ * 续期后剩余有效期重新变为 {@link #SESSION_TTL_MINUTES} 分钟，所以每个会话大约每十分钟一次 EXPIRE。退出登录时通过 pub/sub 通知所有节点删除本地缓存，
+ * 通知丢失时本地缓存最多再存活 {@link #LOCAL_TTL_MILLIS} 毫秒。
+ */
+@Slf4j
+@Component
+public class SessionStore {
+
+    /**
+     * 会话有效期（分钟）
+     */
+    private static final long SESSION_TTL_MINUTES = 30L;
+
+    /**
+     * 剩余有效期低于该值（分钟）时续期
+     */
+    private static final long SESSION_REFRESH_THRESHOLD_MINUTES = 20L;
+
+    /**
+     * 本地缓存的容量和有效期
+     */
+    private static final int LOCAL_CAPACITY = 10000;
+    private static final long LOCAL_TTL_MILLIS = 10 * 1000L;
+
+    // token -> 会话
+    private final LRUCache<String, Session> localCache = CacheUtil.newLRUCache(LOCAL_CAPACITY, LOCAL_TTL_MILLIS);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @PostConstruct
+    private void init() {
+        // 其他节点退出登录时删除本地缓存
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> localCache.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(LOGIN_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 保存会话
+     */
+    public void save(String token, UserDTO userDTO) {
+        // 将User对象转为Hash存储
+        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(), CopyOptions.create()
+                .setIgnoreNullValue(true)
+                .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
+        String key = LOGIN_USER_KEY + token;
+        stringRedisTemplate.opsForHash().putAll(key, userMap);
+        stringRedisTemplate.expire(key, SESSION_TTL_MINUTES, TimeUnit.MINUTES);
+        localCache.put(token, new Session(userDTO, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(SESSION_TTL_MINUTES)));
+    }
+
+    /**
+     * 根据token查询会话，并按需续期
+     *
+     * @return 会话不存在时返回null
+     */
+    public UserDTO get(String token) {
+        long now = System.currentTimeMillis();
+        String key = LOGIN_USER_KEY + token;
+        // 1.本地缓存命中，剩余有效期充足时不访问Redis
+        Session session = localCache.get(token, false);
+        if (session == null) {
+            // 2.本地缓存未命中，一次管道查询会话和剩余有效期
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.hGetAll(key);
+                conn.pTtl(key);
+                return null;
+            });
+            Map<?, ?> userMap = (Map<?, ?>) results.get(0);
+            Long ttl = (Long) results.get(1);
+            if (userMap == null || userMap.isEmpty() || ttl == null || ttl == -2) {
+                return null;
+            }
+            UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+            // 没有过期时间（-1）时按需要续期处理
+            session = new Session(userDTO, ttl < 0 ? now : now + ttl);
+            localCache.put(token, session);
+        }
+        // 3.剩余有效期低于阈值时续期
+        if (session.expiresAt - now < TimeUnit.MINUTES.toMillis(SESSION_REFRESH_THRESHOLD_MINUTES)) {
+            Boolean exists = stringRedisTemplate.expire(key, SESSION_TTL_MINUTES, TimeUnit.MINUTES);
+            if (!Boolean.TRUE.equals(exists)) {
+                // 会话已在Redis中过期或被删除
+                localCache.remove(token);
+                return null;
+            }
+            session.expiresAt = now + TimeUnit.MINUTES.toMillis(SESSION_TTL_MINUTES);
+        }
+        return session.user;
+    }
+
+    /**
+     * 删除会话，并通知所有节点删除本地缓存
+     */
+    public void invalidate(String token) {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        localCache.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_INVALIDATE_CHANNEL, token);
+    }
+
+    private static class Session {
+        private final UserDTO user;
+        // Redis中会话的过期时间
+        private volatile long expiresAt;
+
+        private Session(UserDTO user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 商铺的JVM内空间索引
+ * <p>
+ * 每个商铺类型一个 {@link GeoGrid}，启动时从 tb_shop 按主键分批加载坐标，新增、修改商铺时写时复制更新。
+ * 附近商铺查询直接在内存中计算距离，不访问Redis。
+ * 通过 hmdp.shop.geo-index=true 开启，未开启或索引未加载完成时使用Redis GEO查询。
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex {
+
+    /**
+     * 启动加载时每批读取的商铺数量
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Value("${hmdp.shop.geo-index:false}")
+    private boolean enabled;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    // 商铺类型 -> 网格，整体替换
+    private volatile Map<Long, GeoGrid> grids = Collections.emptyMap();
+
+    // 商铺id -> 商铺类型，修改商铺类型时用来从旧的网格中删除
+    private final Map<Long, Long> shopTypes = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        // 1.按主键分批读取商铺坐标，按类型暂存到基本类型数组中
+        Map<Long, PointBuffer> buffers = new HashMap<>();
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "x", "y").gt("id", lastId).orderByAsc("id").last("LIMIT " + LOAD_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            for (Shop shop : shops) {
+                if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                    continue;
+                }
+                buffers.computeIfAbsent(shop.getTypeId(), t -> new PointBuffer()).add(shop.getId(), shop.getX(), shop.getY());
+                shopTypes.put(shop.getId(), shop.getTypeId());
+            }
+        }
+        // 2.构建每个类型的网格
+        Map<Long, GeoGrid> newGrids = new HashMap<>(buffers.size());
+        buffers.forEach((typeId, buffer) -> newGrids.put(typeId, buffer.build()));
+        synchronized (this) {
+            grids = newGrids;
+            ready = true;
+        }
+        log.info("商铺空间索引加载完成，商铺{}个，耗时{}ms", shopTypes.size(), System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 索引是否可用
+     */
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * 新增或修改商铺后更新索引，商铺需要包含类型和坐标
+     */
+    public synchronized void put(Shop shop) {
+        if (!isReady() || shop == null || shop.getId() == null) {
+            return;
+        }
+        Long id = shop.getId();
+        Map<Long, GeoGrid> newGrids = new HashMap<>(grids);
+        // 1.类型变化或没有坐标时从旧的网格中删除
+        Long oldType = shopTypes.get(id);
+        boolean valid = shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+        if (oldType != null && (!valid || !oldType.equals(shop.getTypeId()))) {
+            newGrids.computeIfPresent(oldType, (t, grid) -> grid.without(id));
+            shopTypes.remove(id);
+        }
+        // 2.写入新的网格
+        if (valid) {
+            newGrids.put(shop.getTypeId(), newGrids.getOrDefault(shop.getTypeId(), GeoGrid.EMPTY).with(id, shop.getX(), shop.getY()));
+            shopTypes.put(id, shop.getTypeId());
+        }
+        grids = newGrids;
+    }
+
+    /**
+     * 删除商铺后更新索引
+     */
+    public synchronized void remove(Long id) {
+        Long oldType = shopTypes.remove(id);
+        if (!isReady() || oldType == null) {
+            return;
+        }
+        Map<Long, GeoGrid> newGrids = new HashMap<>(grids);
+        newGrids.computeIfPresent(oldType, (t, grid) -> grid.without(id));
+        grids = newGrids;
+    }
+
+    /**
+     * 查询某类型半径内最近的 k 个商铺，按距离升序写入 outIds、outDistances
+     *
+     * @return 写入的商铺数
+     */
+    public int nearest(Long typeId, double x, double y, double radius, int k, long[] outIds, double[] outDistances) {
+        GeoGrid grid = grids.get(typeId);
+        return grid == null ? 0 : grid.nearest(x, y, radius, k, outIds, outDistances);
+    }
+
+    /**
+     * 查询某类型半径内按 (距离, id) 排在 (afterDistance, afterId) 之后的 k 个商铺，用于键集分页
+     *
+     * @return 写入的商铺数
+     */
+    public int nearestAfter(Long typeId, double x, double y, double radius, double afterDistance, long afterId,
+                            int k, long[] outIds, double[] outDistances) {
+        GeoGrid grid = grids.get(typeId);
+        return grid == null ? 0 : grid.nearestAfter(x, y, radius, afterDistance, afterId, k, outIds, outDistances);
+    }
+
+    // 加载时按类型收集坐标
+    private static class PointBuffer {
+        private long[] ids = new long[16];
+        private double[] xs = new double[16];
+        private double[] ys = new double[16];
+        private int size;
+
+        private void add(long id, double x, double y) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+                xs = Arrays.copyOf(xs, size << 1);
+                ys = Arrays.copyOf(ys, size << 1);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        private GeoGrid build() {
+            return GeoGrid.build(Arrays.copyOf(ids, size), Arrays.copyOf(xs, size), Arrays.copyOf(ys, size));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 商铺新增、修改、删除后维护各个索引
+ * <p>
+ * 事务提交后 GEOADD/GEOREM shop:geo:{typeId}（类型变化时从旧类型中删除），并更新内存空间索引、名称索引，删除排序索引。
+ * 全量重建时先写入临时key，全部写完后 RENAME 替换，查询不会读到写了一半的索引；
+ * 重建期间修改的商铺在替换后重新同步一次。
+ */
+@Slf4j
+@Component
+public class ShopIndexSync {
+
+    /**
+     * 重建时每批读取的商铺数量
+     */
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    private static final String REBUILD_SUFFIX = ":rebuild";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private ShopSearchEngine shopSearchEngine;
+
+    // 重建期间修改过的商铺：商铺id -> 修改前的类型，为null时表示没有在重建
+    private volatile Map<Long, Optional<Long>> rebuildDirty;
+
+    /**
+     * 新增或修改商铺后同步索引，在事务中调用时等到提交后执行
+     *
+     * @param shop      数据库中的完整商铺
+     * @param oldTypeId 修改前的类型，新增时为null
+     */
+    public void onSaved(Shop shop, Long oldTypeId) {
+        afterCommit(() -> {
+            syncGeo(shop.getId(), shop, oldTypeId);
+            shopGeoIndex.put(shop);
+            shopNameIndex.put(shop);
+            shopSearchEngine.evict(shop.getTypeId());
+            if (oldTypeId != null && !oldTypeId.equals(shop.getTypeId())) {
+                shopSearchEngine.evict(oldTypeId);
+            }
+        });
+    }
+
+    /**
+     * 删除商铺后同步索引，在事务中调用时等到提交后执行
+     */
+    public void onDeleted(Long id, Long typeId) {
+        afterCommit(() -> {
+            syncGeo(id, null, typeId);
+            shopGeoIndex.remove(id);
+            shopNameIndex.remove(id);
+            shopSearchEngine.evict(typeId);
+        });
+    }
+
+    /**
+     * 每天凌晨全量重建 shop:geo:*，修正同步失败遗漏的商铺
+     */
+    @Scheduled(cron = "0 0 4 * * ?")
+    public void rebuild() {
+        // 多个节点只需要一个执行
+        RLock lock = redissonClient.getLock("lock:" + SHOP_GEO_KEY + "rebuild");
+        if (!lock.tryLock()) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        rebuildDirty = new ConcurrentHashMap<>();
+        try {
+            // 1.删除上次重建失败留下的临时key
+            Set<Long> typeIds = new HashSet<>();
+            for (ShopType type : shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"))) {
+                typeIds.add(type.getId());
+            }
+            deleteTempKeys(typeIds);
+            // 2.按主键分批读取商铺坐标，批量写入每个类型的临时key
+            Set<Long> loaded = new HashSet<>();
+            int total = 0;
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y").gt("id", lastId).orderByAsc("id").last("LIMIT " + REBUILD_BATCH_SIZE));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+                List<Shop> valid = new ArrayList<>(shops.size());
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                        valid.add(shop);
+                        // 不在 tb_shop_type 中的类型也要清理临时key
+                        if (loaded.add(shop.getTypeId()) && !typeIds.contains(shop.getTypeId())) {
+                            deleteTempKeys(Collections.singleton(shop.getTypeId()));
+                        }
+                    }
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Shop shop : valid) {
+                        conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId() + REBUILD_SUFFIX, new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                    }
+                    return null;
+                });
+                total += valid.size();
+            }
+            // 3.用临时key替换正式key，没有商铺的类型直接删除
+            for (Long typeId : loaded) {
+                stringRedisTemplate.rename(SHOP_GEO_KEY + typeId + REBUILD_SUFFIX, SHOP_GEO_KEY + typeId);
+            }
+            typeIds.removeAll(loaded);
+            if (!typeIds.isEmpty()) {
+                List<String> keys = new ArrayList<>(typeIds.size());
+                for (Long typeId : typeIds) {
+                    keys.add(SHOP_GEO_KEY + typeId);
+                }
+                stringRedisTemplate.delete(keys);
+            }
+            // 4.重新同步重建期间修改过的商铺
+            Map<Long, Optional<Long>> dirty = rebuildDirty;
+            rebuildDirty = null;
+            dirty.forEach((id, oldTypeId) -> syncGeo(id, shopMapper.selectById(id), oldTypeId.orElse(null)));
+            log.info("商铺GEO索引重建完成，商铺{}个，类型{}个，耗时{}ms", total, loaded.size(), System.currentTimeMillis() - begin);
+        } finally {
+            rebuildDirty = null;
+            lock.unlock();
+        }
+    }
+
+    // 写入商铺所在类型的GEO，类型变化或已删除时从旧类型中删除
+    private void syncGeo(Long id, Shop shop, Long oldTypeId) {
+        Map<Long, Optional<Long>> dirty = rebuildDirty;
+        if (dirty != null) {
+            dirty.putIfAbsent(id, Optional.ofNullable(oldTypeId));
+        }
+        String member = id.toString();
+        boolean valid = shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+        if (oldTypeId != null && (!valid || !oldTypeId.equals(shop.getTypeId()))) {
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + oldTypeId, member);
+        }
+        if (valid) {
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), member);
+        }
+    }
+
+    private void deleteTempKeys(Collection<Long> typeIds) {
+        if (typeIds.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(typeIds.size());
+        for (Long typeId : typeIds) {
+            keys.add(SHOP_GEO_KEY + typeId + REBUILD_SUFFIX);
+        }
+        stringRedisTemplate.delete(keys);
+    }
+
+    // 有事务时在提交后执行，回滚时不执行；索引同步失败不影响已提交的数据，由每天的重建修正
+    private static void afterCommit(Runnable task) {
+        TransactionUtils.afterCommit(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("商铺索引同步失败", e);
+            }
+        });
+    }
+}
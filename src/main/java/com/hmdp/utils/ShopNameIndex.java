@@ -0,0 +1,359 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.Pair;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.ShopSuggestDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * 商铺名称的JVM内倒排索引，代替 LIKE '%name%'
+ * <p>
+ * 名称去掉空白并转为小写后，按单字和相邻两字（bigram）建立倒排表，每个倒排表是升序的 long[] 商铺id。
+ * 查询一个字时直接取单字倒排表，多个字时求所有 bigram 倒排表的交集，再用 contains 去掉不连续的误匹配。
+ * 启动时从 tb_shop 按主键分批加载，新增、修改商铺时写时复制更新，读线程不需要加锁。
+ * 联想词按“名称以输入开头”、评分、销量排序，热门前缀的结果在本地缓存。
+ */
+@Slf4j
+@Component
+public class ShopNameIndex {
+
+    /**
+     * 启动加载时每批读取的商铺数量
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    /**
+     * 联想词缓存的容量和有效期
+     */
+    private static final int SUGGEST_CACHE_CAPACITY = 1000;
+    private static final long SUGGEST_CACHE_TTL_MILLIS = 60 * 1000L;
+
+    private static final long[] NO_IDS = new long[0];
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(), Collections.emptyMap());
+
+    private volatile boolean ready;
+
+    // 前缀 -> 联想词
+    private final LRUCache<String, List<ShopSuggestDTO>> suggestCache =
+            CacheUtil.newLRUCache(SUGGEST_CACHE_CAPACITY, SUGGEST_CACHE_TTL_MILLIS);
+
+    @PostConstruct
+    private void init() {
+        long begin = System.currentTimeMillis();
+        // 1.按主键分批读取商铺名称和排序字段
+        Map<Long, Doc> docs = new HashMap<>();
+        Map<String, LongList> lists = new HashMap<>();
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "name", "score", "sold", "create_time")
+                    .gt("id", lastId).orderByAsc("id").last("LIMIT " + LOAD_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            for (Shop shop : shops) {
+                Doc doc = Doc.of(shop);
+                docs.put(doc.id, doc);
+                // 按id升序加载，追加即有序
+                for (String gram : grams(doc.text)) {
+                    lists.computeIfAbsent(gram, g -> new LongList()).add(doc.id);
+                }
+            }
+        }
+        // 2.生成倒排表
+        Map<String, long[]> postings = new HashMap<>(lists.size() * 2);
+        lists.forEach((gram, list) -> postings.put(gram, list.toArray()));
+        snapshot = new Snapshot(docs, postings);
+        ready = true;
+        log.info("商铺名称索引加载完成，商铺{}个，词{}个，耗时{}ms", docs.size(), postings.size(), System.currentTimeMillis() - begin);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 新增或修改商铺后更新索引，商铺需要包含名称、评分、销量和创建时间
+     */
+    public synchronized void put(Shop shop) {
+        if (!ready || shop == null || shop.getId() == null || shop.getName() == null) {
+            return;
+        }
+        Snapshot old = snapshot;
+        Doc doc = Doc.of(shop);
+        Doc oldDoc = old.docs.get(doc.id);
+        Map<Long, Doc> docs = new HashMap<>(old.docs);
+        docs.put(doc.id, doc);
+        Map<String, long[]> postings = new HashMap<>(old.postings);
+        // 1.从旧名称的倒排表中删除，名称没变时只需要替换排序字段
+        Set<String> newGrams = grams(doc.text);
+        if (oldDoc != null) {
+            for (String gram : grams(oldDoc.text)) {
+                if (!newGrams.contains(gram)) {
+                    long[] ids = remove(postings.get(gram), doc.id);
+                    if (ids.length == 0) {
+                        postings.remove(gram);
+                    } else {
+                        postings.put(gram, ids);
+                    }
+                }
+            }
+        }
+        // 2.加入新名称的倒排表
+        for (String gram : newGrams) {
+            postings.put(gram, insert(postings.getOrDefault(gram, NO_IDS), doc.id));
+        }
+        snapshot = new Snapshot(docs, postings);
+        suggestCache.clear();
+    }
+
+    /**
+     * 删除商铺后更新索引
+     */
+    public synchronized void remove(Long id) {
+        Snapshot old = snapshot;
+        Doc oldDoc = id == null ? null : old.docs.get(id);
+        if (oldDoc == null) {
+            return;
+        }
+        Map<Long, Doc> docs = new HashMap<>(old.docs);
+        docs.remove(id);
+        Map<String, long[]> postings = new HashMap<>(old.postings);
+        for (String gram : grams(oldDoc.text)) {
+            long[] ids = remove(postings.get(gram), id);
+            if (ids.length == 0) {
+                postings.remove(gram);
+            } else {
+                postings.put(gram, ids);
+            }
+        }
+        snapshot = new Snapshot(docs, postings);
+        suggestCache.clear();
+    }
+
+    /**
+     * 名称包含关键字的商铺，按 (创建时间, id) 倒序取游标之后的 limit 个
+     *
+     * @param last 上一页最后一个商铺的 (创建时间, id)，第一页为null
+     * @return 商铺id
+     */
+    public List<Long> search(String keyword, Pair<LocalDateTime, Long> last, int limit) {
+        Snapshot current = snapshot;
+        Comparator<Doc> order = Comparator.comparing((Doc d) -> d.createTime, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparingLong(d -> d.id).reversed();
+        Doc lastDoc = last == null ? null : new Doc(last.getValue(), null, 0, 0, last.getKey());
+        List<Doc> docs = topK(current, keyword, limit, order, d -> lastDoc == null || order.compare(d, lastDoc) > 0);
+        List<Long> ids = new ArrayList<>(docs.size());
+        for (Doc doc : docs) {
+            ids.add(doc.id);
+        }
+        return ids;
+    }
+
+    /**
+     * 联想词：名称包含输入的商铺，以输入开头的在前，其次按评分、销量由高到低
+     */
+    public List<ShopSuggestDTO> suggest(String prefix, int limit) {
+        String text = normalize(prefix);
+        if (text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String cacheKey = text + ":" + limit;
+        List<ShopSuggestDTO> cached = suggestCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        Comparator<Doc> order = Comparator.comparing((Doc d) -> !d.text.startsWith(text))
+                .thenComparing(Comparator.comparingInt((Doc d) -> d.score).reversed())
+                .thenComparing(Comparator.comparingInt((Doc d) -> d.sold).reversed())
+                .thenComparingLong(d -> d.id);
+        List<Doc> docs = topK(snapshot, prefix, limit, order, d -> true);
+        List<ShopSuggestDTO> result = new ArrayList<>(docs.size());
+        for (Doc doc : docs) {
+            ShopSuggestDTO dto = new ShopSuggestDTO();
+            dto.setId(doc.id);
+            dto.setName(doc.name);
+            result.add(dto);
+        }
+        suggestCache.put(cacheKey, result);
+        return result;
+    }
+
+    // 倒排表求交集后校验名称，用容量为 limit 的堆保留排序最靠前的
+    private static List<Doc> topK(Snapshot current, String keyword, int limit, Comparator<Doc> order,
+                                  Predicate<Doc> filter) {
+        String text = normalize(keyword);
+        long[] ids = candidates(current, text);
+        PriorityQueue<Doc> heap = new PriorityQueue<>(limit + 1, order.reversed());
+        for (long id : ids) {
+            Doc doc = current.docs.get(id);
+            if (doc == null || !doc.text.contains(text) || !filter.test(doc)) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.offer(doc);
+            } else if (order.compare(doc, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(doc);
+            }
+        }
+        List<Doc> docs = new ArrayList<>(heap);
+        docs.sort(order);
+        return docs;
+    }
+
+    // 一个字取单字倒排表，多个字求所有 bigram 倒排表的交集，从最短的开始
+    private static long[] candidates(Snapshot current, String text) {
+        if (text.isEmpty()) {
+            return NO_IDS;
+        }
+        if (text.length() == 1) {
+            return current.postings.getOrDefault(text, NO_IDS);
+        }
+        List<long[]> lists = new ArrayList<>(text.length() - 1);
+        for (int i = 0; i + 1 < text.length(); i++) {
+            long[] ids = current.postings.get(text.substring(i, i + 2));
+            if (ids == null) {
+                return NO_IDS;
+            }
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(ids -> ids.length));
+        long[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    // 两个升序数组求交集，短数组在长数组中二分查找，查找起点单调递增
+    private static long[] intersect(long[] small, long[] large) {
+        long[] result = new long[small.length];
+        int n = 0;
+        int from = 0;
+        for (long id : small) {
+            int index = Arrays.binarySearch(large, from, large.length, id);
+            if (index >= 0) {
+                result[n++] = id;
+                from = index + 1;
+            } else {
+                from = -index - 1;
+            }
+            if (from >= large.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static long[] insert(long[] ids, long id) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index >= 0) {
+            return ids;
+        }
+        index = -index - 1;
+        long[] result = new long[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, index);
+        result[index] = id;
+        System.arraycopy(ids, index, result, index + 1, ids.length - index);
+        return result;
+    }
+
+    private static long[] remove(long[] ids, long id) {
+        int index = ids == null ? -1 : Arrays.binarySearch(ids, id);
+        if (index < 0) {
+            return ids == null ? NO_IDS : ids;
+        }
+        long[] result = new long[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, index);
+        System.arraycopy(ids, index + 1, result, index, ids.length - index - 1);
+        return result;
+    }
+
+    // 名称的单字和 bigram
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>(text.length() * 2);
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+            if (i + 1 < text.length()) {
+                grams.add(text.substring(i, i + 2));
+            }
+        }
+        return grams;
+    }
+
+    // 去掉空白并转为小写
+    private static String normalize(String s) {
+        return StrUtil.cleanBlank(StrUtil.nullToEmpty(s)).toLowerCase();
+    }
+
+    private static class Snapshot {
+        private final Map<Long, Doc> docs;
+        private final Map<String, long[]> postings;
+
+        private Snapshot(Map<Long, Doc> docs, Map<String, long[]> postings) {
+            this.docs = docs;
+            this.postings = postings;
+        }
+    }
+
+    private static class Doc {
+        private final long id;
+        private final String name;
+        // 用于匹配的名称
+        private final String text;
+        private final int score;
+        private final int sold;
+        private final LocalDateTime createTime;
+
+        private Doc(long id, String name, int score, int sold, LocalDateTime createTime) {
+            this.id = id;
+            this.name = name;
+            this.text = normalize(name);
+            this.score = score;
+            this.sold = sold;
+            this.createTime = createTime;
+        }
+
+        private static Doc of(Shop shop) {
+            return new Doc(shop.getId(), shop.getName(),
+                    shop.getScore() == null ? 0 : shop.getScore(),
+                    shop.getSold() == null ? 0 : shop.getSold(),
+                    shop.getCreateTime());
+        }
+    }
+
+    // 加载时收集倒排表
+    private static class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        private long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.ShopSearchDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 附近商铺的多条件搜索
+ * <p>
+ * 先取半径内的候选商铺（内存空间索引或 GEOSEARCH，最多 {@link #MAX_CANDIDATES} 个，超过时结果标记为 truncated），
+ * 再用一次管道 ZMSCORE 从每个类型的排序索引 shop:rank:{字段}:{typeId} 中读取评分、均价、销量，
+ * 过滤后用容量为 pageSize+1 的堆取出游标之后的前 K 个，不需要数据库排序。
+ * 排序索引在不存在时按类型从数据库分批加载，商铺修改时删除，下次查询重新加载；
+ * 商铺修改时同时自增类型的版本号，加载期间版本号变化时丢弃加载结果，避免把修改前读到的数据写回排序索引。
+ */
+@Component
+public class ShopSearchEngine {
+
+    /**
+     * 半径内最多参与排序的候选商铺数量
+     */
+    private static final int MAX_CANDIDATES = 2000;
+
+    /**
+     * 默认和最大搜索半径（米）
+     */
+    private static final double DEFAULT_RADIUS = 5000;
+    private static final double MAX_RADIUS = 20000;
+
+    /**
+     * 加载排序索引时每批读取的商铺数量
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    /**
+     * 类型下没有商铺时写入排序索引的占位成员
+     */
+    private static final String EMPTY_MEMBER = "0";
+
+    private static final DefaultRedisScript<Long> RANK_SWAP_SCRIPT;
+    static {
+        RANK_SWAP_SCRIPT = new DefaultRedisScript<>();
+        RANK_SWAP_SCRIPT.setLocation(new ClassPathResource("shop_rank_swap.lua"));
+        RANK_SWAP_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 排序字段
+     */
+    public enum SortKey {
+        DISTANCE("distance", false, null),
+        SCORE("score", true, Shop::getScore),
+        AVG_PRICE("avgPrice", false, Shop::getAvgPrice),
+        SOLD("sold", true, Shop::getSold);
+
+        private final String name;
+        // 是否由大到小排序
+        private final boolean desc;
+        // 从商铺中读取字段值，距离为null
+        private final Function<Shop, Number> getter;
+
+        SortKey(String name, boolean desc, Function<Shop, Number> getter) {
+            this.name = name;
+            this.desc = desc;
+            this.getter = getter;
+        }
+
+        public static SortKey of(String name) {
+            for (SortKey key : values()) {
+                if (key.name.equals(name)) {
+                    return key;
+                }
+            }
+            return name == null || name.isEmpty() ? DISTANCE : null;
+        }
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    /**
+     * 搜索一页商铺
+     *
+     * @param pageSize 每页数量
+     * @return 本页的商铺id及距离，和下一页的游标
+     */
+    public Hits search(ShopSearchDTO query, SortKey sortKey, int pageSize) {
+        double radius = query.getRadius() == null ? DEFAULT_RADIUS : Math.min(query.getRadius(), MAX_RADIUS);
+        // 1.半径内的候选商铺，按距离升序，多取一个用来判断是否超过上限
+        long[] ids = new long[MAX_CANDIDATES + 1];
+        double[] distances = new double[MAX_CANDIDATES + 1];
+        int n = candidates(query.getTypeId(), query.getX(), query.getY(), radius, ids, distances);
+        Hits hits = new Hits();
+        if (n > MAX_CANDIDATES) {
+            // 更远的商铺不参与排序
+            n = MAX_CANDIDATES;
+            hits.truncated = true;
+        }
+        if (n == 0) {
+            return hits;
+        }
+
+        // 2.一次管道 ZMSCORE 读取排序和过滤需要的字段
+        boolean priceFilter = query.getMinPrice() != null || query.getMaxPrice() != null;
+        List<SortKey> fields = new ArrayList<>(3);
+        if (sortKey != SortKey.DISTANCE) {
+            fields.add(sortKey);
+        }
+        if (query.getMinScore() != null && !fields.contains(SortKey.SCORE)) {
+            fields.add(SortKey.SCORE);
+        }
+        if (priceFilter && !fields.contains(SortKey.AVG_PRICE)) {
+            fields.add(SortKey.AVG_PRICE);
+        }
+        Map<SortKey, List<Double>> scores = readScores(query.getTypeId(), fields, ids, n);
+
+        // 3.过滤，并用堆保留游标之后最靠前的 pageSize + 1 个
+        String[] last = CursorUtils.decodeParts(query.getCursor(), 2);
+        double lastValue;
+        long lastId;
+        try {
+            lastValue = last == null ? 0 : Double.parseDouble(last[0]);
+            lastId = last == null ? 0 : Long.parseLong(last[1]);
+        } catch (NumberFormatException e) {
+            throw new CursorUtils.InvalidCursorException(query.getCursor());
+        }
+        double[] values = sortKey == SortKey.DISTANCE ? distances : new double[n];
+        // 大顶堆，堆顶是已保留中最靠后的一个
+        PriorityQueue<Integer> heap = new PriorityQueue<>(pageSize + 2,
+                (a, b) -> -compare(sortKey, values[a], ids[a], values[b], ids[b]));
+        for (int i = 0; i < n; i++) {
+            if (!matches(query, scores, i)) {
+                continue;
+            }
+            if (sortKey != SortKey.DISTANCE) {
+                Double value = scores.get(sortKey).get(i);
+                if (value == null) {
+                    continue;
+                }
+                values[i] = value;
+            }
+            if (last != null && compare(sortKey, values[i], ids[i], lastValue, lastId) <= 0) {
+                continue;
+            }
+            if (heap.size() <= pageSize) {
+                heap.offer(i);
+            } else if (compare(sortKey, values[i], ids[i], values[heap.peek()], ids[heap.peek()]) < 0) {
+                heap.poll();
+                heap.offer(i);
+            }
+        }
+
+        // 4.按排序顺序取出，多出的一条用来判断是否有下一页
+        Integer[] order = heap.toArray(new Integer[0]);
+        Arrays.sort(order, (a, b) -> compare(sortKey, values[a], ids[a], values[b], ids[b]));
+        int size = Math.min(order.length, pageSize);
+        for (int i = 0; i < size; i++) {
+            hits.ids.add(ids[order[i]]);
+            hits.distances.put(ids[order[i]], distances[order[i]]);
+        }
+        if (order.length > pageSize) {
+            int tail = order[pageSize - 1];
+            hits.cursor = CursorUtils.encodeParts(values[tail], ids[tail]);
+        }
+        return hits;
+    }
+
+    /**
+     * 商铺修改后自增所在类型的版本号，并删除排序索引
+     */
+    public void evict(Long typeId) {
+        if (typeId == null) {
+            return;
+        }
+        // 先自增版本号，正在进行的加载不会再替换排序索引
+        stringRedisTemplate.opsForValue().increment(SHOP_RANK_VERSION_KEY + typeId);
+        List<String> keys = new ArrayList<>(3);
+        for (SortKey key : SortKey.values()) {
+            if (key.getter != null) {
+                keys.add(rankKey(key, typeId));
+            }
+        }
+        stringRedisTemplate.delete(keys);
+    }
+
+    // 按排序字段比较，相同时按id升序，保证翻页稳定
+    private static int compare(SortKey sortKey, double v1, long id1, double v2, long id2) {
+        int c = Double.compare(v1, v2);
+        if (c != 0) {
+            return sortKey.desc ? -c : c;
+        }
+        return Long.compare(id1, id2);
+    }
+
+    private static boolean matches(ShopSearchDTO query, Map<SortKey, List<Double>> scores, int i) {
+        if (query.getMinScore() != null) {
+            Double score = scores.get(SortKey.SCORE).get(i);
+            if (score == null || score < query.getMinScore()) {
+                return false;
+            }
+        }
+        if (query.getMinPrice() != null || query.getMaxPrice() != null) {
+            Double price = scores.get(SortKey.AVG_PRICE).get(i);
+            if (price == null) {
+                return false;
+            }
+            if (query.getMinPrice() != null && price < query.getMinPrice()) {
+                return false;
+            }
+            return query.getMaxPrice() == null || price <= query.getMaxPrice();
+        }
+        return true;
+    }
+
+    // 半径内的候选商铺：优先使用内存空间索引，否则 GEOSEARCH
+    private int candidates(Long typeId, double x, double y, double radius, long[] ids, double[] distances) {
+        if (shopGeoIndex.isReady()) {
+            return shopGeoIndex.nearest(typeId, x, y, radius, ids.length, ids, distances);
+        }
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
+                .search(SHOP_GEO_KEY + typeId,
+                        GeoReference.fromCoordinate(x, y),
+                        new Distance(radius),
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(ids.length)
+                );
+        if (results == null) {
+            return 0;
+        }
+        int n = 0;
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results.getContent()) {
+            ids[n] = Long.parseLong(result.getContent().getName());
+            distances[n] = result.getDistance().getValue();
+            n++;
+        }
+        return n;
+    }
+
+    // 一次管道 ZMSCORE 读取候选商铺的字段值，排序索引不存在时先从数据库加载
+    private Map<SortKey, List<Double>> readScores(Long typeId, List<SortKey> fields, long[] ids, int n) {
+        Map<SortKey, List<Double>> scores = new EnumMap<>(SortKey.class);
+        if (fields.isEmpty()) {
+            return scores;
+        }
+        String[] members = new String[n];
+        for (int i = 0; i < n; i++) {
+            members[i] = String.valueOf(ids[i]);
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (SortKey field : fields) {
+                conn.exists(rankKey(field, typeId));
+                conn.zMScore(rankKey(field, typeId), members);
+            }
+            return null;
+        });
+        List<SortKey> missing = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(2 * i))) {
+                scores.put(fields.get(i), castScores(results.get(2 * i + 1)));
+            } else {
+                missing.add(fields.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            // 本次查询直接使用加载的数据，加载结果被丢弃时也不需要再读取Redis
+            Map<SortKey, Map<String, Double>> loaded = loadRanks(typeId, missing);
+            for (SortKey field : missing) {
+                Map<String, Double> values = loaded.get(field);
+                List<Double> list = new ArrayList<>(n);
+                for (String member : members) {
+                    list.add(values.get(member));
+                }
+                scores.put(field, list);
+            }
+        }
+        return scores;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Double> castScores(Object result) {
+        return (List<Double>) result;
+    }
+
+    /**
+     * 按主键分批读取类型下所有商铺的字段，写入临时key后 RENAME 为排序索引，查询时不会读到写了一半的索引
+     * <p>
+     * 读取数据库前记录版本号，替换时版本号已变化说明加载期间有商铺修改，丢弃本次加载的结果
+     *
+     * @return 每个字段的 商铺id -> 字段值
+     */
+    private Map<SortKey, Map<String, Double>> loadRanks(Long typeId, List<SortKey> fields) {
+        String versionKey = SHOP_RANK_VERSION_KEY + typeId;
+        String version = stringRedisTemplate.opsForValue().get(versionKey);
+        Map<SortKey, Map<String, Double>> values = new EnumMap<>(SortKey.class);
+        for (SortKey field : fields) {
+            values.put(field, new HashMap<>());
+        }
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "score", "avg_price", "sold").eq("type_id", typeId)
+                    .gt("id", lastId).orderByAsc("id").last("LIMIT " + LOAD_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            for (Shop shop : shops) {
+                for (SortKey field : fields) {
+                    Number value = field.getter.apply(shop);
+                    if (value != null) {
+                        values.get(field).put(shop.getId().toString(), value.doubleValue());
+                    }
+                }
+            }
+        }
+        // 写入临时key，版本号没有变化时替换排序索引
+        List<String> keys = new ArrayList<>(2 * fields.size() + 1);
+        keys.add(versionKey);
+        for (SortKey field : fields) {
+            String key = rankKey(field, typeId);
+            String tmpKey = key + ":" + UUID.randomUUID().toString(true);
+            Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+            tuples.add(new DefaultTypedTuple<>(EMPTY_MEMBER, 0D));
+            values.get(field).forEach((id, value) -> tuples.add(new DefaultTypedTuple<>(id, value)));
+            stringRedisTemplate.opsForZSet().add(tmpKey, tuples);
+            stringRedisTemplate.expire(tmpKey, SHOP_RANK_TTL, TimeUnit.HOURS);
+            keys.add(tmpKey);
+            keys.add(key);
+        }
+        stringRedisTemplate.execute(RANK_SWAP_SCRIPT, keys,
+                version == null ? "0" : version, String.valueOf(TimeUnit.HOURS.toSeconds(SHOP_RANK_TTL)));
+        return values;
+    }
+
+    private static String rankKey(SortKey field, Long typeId) {
+        return SHOP_RANK_KEY + field.name + ":" + typeId;
+    }
+
+    /**
+     * 一页搜索结果
+     */
+    public static class Hits {
+        private final List<Long> ids = new ArrayList<>();
+        private final Map<Long, Double> distances = new HashMap<>();
+        private String cursor;
+        // 半径内的商铺超过候选上限，更远的商铺没有参与排序
+        private boolean truncated;
+
+        public List<Long> getIds() {
+            return ids;
+        }
+
+        public Map<Long, Double> getDistances() {
+            return distances;
+        }
+
+        public String getCursor() {
+            return cursor;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+    }
+}
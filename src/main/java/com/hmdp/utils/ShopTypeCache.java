@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 商铺类型列表的JVM内快照
+ * <p>
+ * 启动时查询 tb_shop_type，把响应体提前序列化成JSON字节数组并计算ETag，/shop-type/list 直接返回字节数组，
+ * 不查询数据库也不逐次序列化。每5分钟重新加载，内容变化时整体替换快照。
+ * 商铺类型没有修改接口，只在数据库中直接维护，修改后最多5分钟生效。
+ */
+@Slf4j
+@Component
+public class ShopTypeCache {
+
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    private void init() {
+        reload();
+    }
+
+    /**
+     * 当前快照
+     */
+    public Snapshot get() {
+        return snapshot;
+    }
+
+    /**
+     * 定时重新加载，读取直接在数据库中修改的商铺类型
+     */
+    @Scheduled(fixedDelay = 5 * 60 * 1000, initialDelay = 5 * 60 * 1000)
+    public synchronized void reload() {
+        // 1.查询并序列化成与 Result.ok(list) 相同的响应体
+        List<ShopType> types = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            log.error("商铺类型序列化失败", e);
+            return;
+        }
+        // 2.内容没有变化时保留原快照，ETag 不变
+        Snapshot old = snapshot;
+        if (old != null && Arrays.equals(old.body, body)) {
+            return;
+        }
+        long version = old == null ? 1 : old.version + 1;
+        snapshot = new Snapshot(version, body, "\"" + DigestUtils.md5DigestAsHex(body) + "\"");
+        log.info("商铺类型快照已更新，版本{}，类型{}个", version, types.size());
+    }
+
+    /**
+     * 不可变快照，body 不能修改
+     */
+    public static class Snapshot {
+        private final long version;
+        private final byte[] body;
+        private final String etag;
+
+        private Snapshot(long version, byte[] body, String etag) {
+            this.version = version;
+            this.body = body;
+            this.etag = etag;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
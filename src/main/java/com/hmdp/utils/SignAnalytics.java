@@ -0,0 +1,220 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.SignRetentionDTO;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 全站签到统计
+ * <p>
+ * 每天一个位图 sign:day:{yyyyMMdd}，偏移量为用户id，由签到脚本和用户自己的月位图一起写入。
+ * 日活 BITCOUNT，周活先 BITOP OR 七天的位图再 BITCOUNT，留存 BITOP AND 首日和第 N 天的位图后 BITCOUNT，
+ * 都在Redis中按位完成，不需要扫描每个用户的 sign:{userId}:{yyyyMM}。
+ * 上线前的历史签到由每月的补数任务从用户月位图回填。
+ */
+@Slf4j
+@Component
+public class SignAnalytics {
+
+    /**
+     * 留存最多统计的天数
+     */
+    public static final int MAX_RETENTION_DAYS = 30;
+
+    /**
+     * 补数时每批读取的用户数量
+     */
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * 某一天的签到人数 BITCOUNT sign:day:{yyyyMMdd}
+     */
+    public long dailyActive(LocalDate day) {
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                ((StringRedisConnection) connection).bitCount(SignCalendar.dayKey(day)));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 某一天所在自然周（周一到周日）的签到人数，七天的位图 BITOP OR 后 BITCOUNT，合并结果短时缓存
+     */
+    public long weeklyActive(LocalDate day) {
+        LocalDate monday = day.with(DayOfWeek.MONDAY);
+        String weekKey = SIGN_WEEK_KEY + monday.format(SignCalendar.DAY_FORMATTER);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            // 合并结果不存在时才重新 BITOP
+            conn.exists(weekKey);
+            conn.bitCount(weekKey);
+            return null;
+        });
+        if (Boolean.TRUE.equals(results.get(0))) {
+            return (Long) results.get(1);
+        }
+        String[] dayKeys = new String[7];
+        for (int i = 0; i < 7; i++) {
+            dayKeys[i] = SignCalendar.dayKey(monday.plusDays(i));
+        }
+        results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.bitOp(RedisStringCommands.BitOperation.OR, weekKey, dayKeys);
+            conn.expire(weekKey, TimeUnit.MINUTES.toSeconds(SIGN_WEEK_TTL));
+            conn.bitCount(weekKey);
+            return null;
+        });
+        return (Long) results.get(2);
+    }
+
+    /**
+     * 留存：某一天签到的用户在之后第 1~days 天仍然签到的人数
+     * <p>
+     * 每一天 BITOP AND 到临时key、BITCOUNT、再删除临时key，所有天数在一次管道中完成
+     */
+    public SignRetentionDTO retention(LocalDate cohortDay, int days) {
+        int n = Math.max(1, Math.min(days, MAX_RETENTION_DAYS));
+        String cohortKey = SignCalendar.dayKey(cohortDay);
+        String tmpKey = cohortKey + ":retention:" + UUID.randomUUID().toString(true);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.bitCount(cohortKey);
+            for (int i = 1; i <= n; i++) {
+                conn.bitOp(RedisStringCommands.BitOperation.AND, tmpKey, cohortKey, SignCalendar.dayKey(cohortDay.plusDays(i)));
+                conn.bitCount(tmpKey);
+            }
+            conn.del(tmpKey);
+            return null;
+        });
+        long cohort = (Long) results.get(0);
+        List<Long> retained = new ArrayList<>(n);
+        List<Double> rates = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) {
+            // 每一天对应 BITOP、BITCOUNT 两个结果
+            long count = (Long) results.get(2 * i);
+            retained.add(count);
+            rates.add(cohort == 0 ? 0D : (double) count / cohort);
+        }
+        SignRetentionDTO dto = new SignRetentionDTO();
+        dto.setDate(cohortDay);
+        dto.setCohort(cohort);
+        dto.setRetained(retained);
+        dto.setRates(rates);
+        return dto;
+    }
+
+    /**
+     * 每月1号回填上个月的全站签到位图
+     */
+    @Scheduled(cron = "0 30 3 1 * ?")
+    public void backfillLastMonth() {
+        backfill(YearMonth.now().minusMonths(1));
+    }
+
+    /**
+     * 从用户的月位图回填某个月的全站签到位图
+     * <p>
+     * 按主键分页读取用户id，每页一次管道 BITFIELD 读取月位图、一次管道 SETBIT 写入每天的位图，
+     * 内存中只保留一页数据；SETBIT 幂等，重复执行不影响结果
+     */
+    public void backfill(YearMonth month) {
+        // 多个节点只需要一个执行
+        RLock lock = redissonClient.getLock("lock:" + SIGN_DAY_KEY + "backfill");
+        if (!lock.tryLock()) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            BitFieldSubCommands command = BitFieldSubCommands.create()
+                    .get(BitFieldSubCommands.BitFieldType.unsigned(SignCalendar.MONTH_BITS)).valueAt(0);
+            String[] dayKeys = new String[month.lengthOfMonth() + 1];
+            for (int day = 1; day < dayKeys.length; day++) {
+                dayKeys[day] = SignCalendar.dayKey(month.atDay(day));
+            }
+            long lastId = 0;
+            long signs = 0;
+            while (true) {
+                // 1.分页读取用户id
+                List<User> users = userMapper.selectList(new QueryWrapper<User>()
+                        .select("id").gt("id", lastId).orderByAsc("id").last("LIMIT " + BACKFILL_BATCH_SIZE));
+                if (users.isEmpty()) {
+                    break;
+                }
+                lastId = users.get(users.size() - 1).getId();
+                // 2.一次管道读取这一页用户的月位图
+                List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (User user : users) {
+                        conn.bitfield(SignCalendar.monthKey(user.getId(), month), command);
+                    }
+                    return null;
+                });
+                int[] words = new int[users.size()];
+                int count = 0;
+                for (int i = 0; i < words.length; i++) {
+                    List<?> values = (List<?>) results.get(i);
+                    if (values != null && !values.isEmpty() && values.get(0) != null) {
+                        words[i] = ((Number) values.get(0)).intValue();
+                        count += Integer.bitCount(words[i]);
+                    }
+                }
+                if (count == 0) {
+                    continue;
+                }
+                signs += count;
+                // 3.一次管道写入每个签到日的全站位图，每次取最低位的1，不逐位循环
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (int i = 0; i < words.length; i++) {
+                        long userId = users.get(i).getId();
+                        for (int word = words[i]; word != 0; word &= word - 1) {
+                            int day = SignCalendar.MONTH_BITS - Integer.numberOfTrailingZeros(word);
+                            conn.setBit(dayKeys[day], userId, true);
+                        }
+                    }
+                    return null;
+                });
+            }
+            // 4.设置有效期
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (int day = 1; day < dayKeys.length; day++) {
+                    conn.expire(dayKeys[day], TimeUnit.DAYS.toSeconds(SIGN_DAY_TTL));
+                }
+                return null;
+            });
+            log.info("回填{}全站签到位图完成，签到{}次，耗时{}ms", month, signs, System.currentTimeMillis() - begin);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
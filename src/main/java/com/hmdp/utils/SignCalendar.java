@@ -0,0 +1,283 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.SignStatsDTO;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 签到日历
+ * <p>
+ * 每个用户每月一个位图 sign:{userId}:{yyyyMM}，第 N 天对应偏移量 N-1。
+ * 多个月的位图用一次管道 BITFIELD GET u31 0 读出，每个月是一个 int，
+ * 签到天数用 {@link Integer#bitCount}，连续签到用 {@link Integer#numberOfTrailingZeros} 按整段统计，不逐位循环。
+ * 当前连续天数和最长连续天数缓存在 sign:streak:{userId} 中，由 sign.lua 在签到时增量更新，
+ * 缓存不存在时（如历史用户）从位图重建。
+ * 签到时同时写入当天的全站位图 sign:day:{yyyyMMdd}，偏移量为用户id，供 {@link SignAnalytics} 统计。
+ */
+@Component
+public class SignCalendar {
+
+    /**
+     * 每个月的位图读取的位数
+     */
+    static final int MONTH_BITS = 31;
+
+    /**
+     * 重建连续签到缓存时每次回溯的月数，以及最多回溯的月数
+     */
+    private static final int REBUILD_MONTHS = 12;
+    private static final int MAX_REBUILD_MONTHS = 120;
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+    static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final DefaultRedisScript<Long> SIGN_SCRIPT;
+    static {
+        SIGN_SCRIPT = new DefaultRedisScript<>();
+        SIGN_SCRIPT.setLocation(new ClassPathResource("sign.lua"));
+        SIGN_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 签到，并增量更新连续签到缓存
+     *
+     * @return 当前连续签到天数
+     */
+    public int sign(Long userId, LocalDate today) {
+        String streakKey = USER_SIGN_STREAK_KEY + userId;
+        // 1.缓存不存在时先从位图重建，保证增量更新的基数正确
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streakKey))) {
+            rebuildStreak(userId, today);
+        }
+        // 2.执行lua脚本，签到、写入全站签到位图和更新连续天数是原子的
+        Long cur = stringRedisTemplate.execute(SIGN_SCRIPT,
+                Arrays.asList(monthKey(userId, YearMonth.from(today)), streakKey, dayKey(today)),
+                String.valueOf(today.getDayOfMonth() - 1),
+                today.format(DAY_FORMATTER),
+                today.minusDays(1).format(DAY_FORMATTER),
+                userId.toString(),
+                String.valueOf(TimeUnit.DAYS.toSeconds(SIGN_DAY_TTL)));
+        return cur == null ? 0 : cur.intValue();
+    }
+
+    /**
+     * 当前连续签到天数，截止今天或昨天；昨天和今天都没有签到时为0
+     */
+    public int currentStreak(Long userId, LocalDate today) {
+        return currentStreak(loadStreak(userId, today), today);
+    }
+
+    /**
+     * 查询某一年的签到统计
+     */
+    public SignStatsDTO stats(Long userId, int year, LocalDate today) {
+        // 1.一次管道读取全年12个月的位图
+        List<YearMonth> months = new ArrayList<>(12);
+        for (int month = 1; month <= 12; month++) {
+            months.add(YearMonth.of(year, month));
+        }
+        int[] words = readMonths(userId, months);
+        // 2.每月天数 bitCount
+        List<Integer> monthDays = new ArrayList<>(12);
+        int yearDays = 0;
+        for (int word : words) {
+            int days = Integer.bitCount(word);
+            monthDays.add(days);
+            yearDays += days;
+        }
+        // 3.全年最长连续签到，跨月拼接
+        int yearLongest = longestStreak(months, words);
+        // 4.当前连续和历史最长读缓存
+        Map<Object, Object> streak = loadStreak(userId, today);
+        int longest = Math.max(parseInt(streak.get("max")), yearLongest);
+
+        SignStatsDTO stats = new SignStatsDTO();
+        stats.setYear(year);
+        stats.setMonthDays(monthDays);
+        stats.setYearDays(yearDays);
+        stats.setCurrentStreak(currentStreak(streak, today));
+        stats.setYearLongestStreak(yearLongest);
+        stats.setLongestStreak(longest);
+        return stats;
+    }
+
+    private int currentStreak(Map<Object, Object> streak, LocalDate today) {
+        Object last = streak.get("last");
+        if (today.format(DAY_FORMATTER).equals(last) || today.minusDays(1).format(DAY_FORMATTER).equals(last)) {
+            return parseInt(streak.get("cur"));
+        }
+        return 0;
+    }
+
+    private Map<Object, Object> loadStreak(Long userId, LocalDate today) {
+        Map<Object, Object> streak = stringRedisTemplate.opsForHash().entries(USER_SIGN_STREAK_KEY + userId);
+        if (streak.isEmpty()) {
+            streak = rebuildStreak(userId, today);
+        }
+        return streak;
+    }
+
+    /**
+     * 从位图重建连续签到缓存：当前连续签到从今天（今天未签到则从昨天）往前数，
+     * 整月都签到时继续回溯更早的月份；最长连续签到统计最近 {@link #REBUILD_MONTHS} 个月
+     */
+    private Map<Object, Object> rebuildStreak(Long userId, LocalDate today) {
+        YearMonth thisMonth = YearMonth.from(today);
+        int[] recent = readMonths(userId, monthsBefore(thisMonth, REBUILD_MONTHS));
+        // 1.最近12个月的最长连续签到，recent 按时间倒序
+        List<YearMonth> ascMonths = new ArrayList<>(REBUILD_MONTHS);
+        int[] ascWords = new int[REBUILD_MONTHS];
+        for (int i = 0; i < REBUILD_MONTHS; i++) {
+            ascMonths.add(thisMonth.minusMonths(REBUILD_MONTHS - 1 - i));
+            ascWords[i] = recent[REBUILD_MONTHS - 1 - i];
+        }
+        int max = longestStreak(ascMonths, ascWords);
+        // 2.今天未签到时从昨天开始数
+        LocalDate end = isSigned(recent[0], today.getDayOfMonth()) ? today : today.minusDays(1);
+        YearMonth month = YearMonth.from(end);
+        int[] words = month.equals(thisMonth) ? recent : Arrays.copyOfRange(recent, 1, recent.length);
+        int index = 0;
+        int length = end.getDayOfMonth();
+        int cur = 0;
+        while (true) {
+            if (index == words.length) {
+                // 3.连续签到超过已读取的月份，继续回溯
+                if (cur >= MAX_REBUILD_MONTHS * 31) {
+                    break;
+                }
+                words = readMonths(userId, monthsBefore(month, REBUILD_MONTHS));
+                index = 0;
+            }
+            int run = trailingOnes(words[index], length);
+            cur += run;
+            if (run < length) {
+                break;
+            }
+            // 整月签到，继续上一个月
+            month = month.minusMonths(1);
+            length = month.lengthOfMonth();
+            index++;
+        }
+        Map<Object, Object> streak = new HashMap<>(4);
+        streak.put("last", cur > 0 ? end.format(DAY_FORMATTER) : "");
+        streak.put("cur", String.valueOf(cur));
+        streak.put("max", String.valueOf(Math.max(max, cur)));
+        stringRedisTemplate.opsForHash().putAll(USER_SIGN_STREAK_KEY + userId, streak);
+        return streak;
+    }
+
+    // 从 month 开始往前的 count 个月，按时间倒序
+    private static List<YearMonth> monthsBefore(YearMonth month, int count) {
+        List<YearMonth> months = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            months.add(month.minusMonths(i));
+        }
+        return months;
+    }
+
+    /**
+     * 一次管道读取多个月的位图，每个月返回一个 int，第 N 天在从高位数第 N 位（即 bit 31-N）
+     */
+    private int[] readMonths(Long userId, List<YearMonth> months) {
+        BitFieldSubCommands command = BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(MONTH_BITS)).valueAt(0);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (YearMonth month : months) {
+                conn.bitfield(monthKey(userId, month), command);
+            }
+            return null;
+        });
+        int[] words = new int[months.size()];
+        for (int i = 0; i < words.length; i++) {
+            List<?> values = (List<?>) results.get(i);
+            if (values != null && !values.isEmpty() && values.get(0) != null) {
+                words[i] = ((Number) values.get(0)).intValue();
+            }
+        }
+        return words;
+    }
+
+    /**
+     * 按时间顺序拼接多个月，统计最长连续签到天数
+     */
+    static int longestStreak(List<YearMonth> months, int[] words) {
+        int best = 0;
+        // 跨到当前月份的连续天数
+        int carry = 0;
+        for (int i = 0; i < words.length; i++) {
+            int length = months.get(i).lengthOfMonth();
+            int bits = word(words[i], length);
+            if (Integer.bitCount(bits) == length) {
+                // 整月签到，连续天数延续到下个月
+                carry += length;
+                continue;
+            }
+            best = Math.max(best, carry + leadingOnes(bits, length));
+            best = Math.max(best, longestRun(bits));
+            carry = trailingOnes(words[i], length);
+        }
+        return Math.max(best, carry);
+    }
+
+    // 取本月前 length 天，右对齐：第 length 天在最低位，第 1 天在 bit length-1
+    private static int word(int word, int length) {
+        return word >>> (MONTH_BITS - length);
+    }
+
+    // 第 length 天往前的连续签到天数
+    private static int trailingOnes(int word, int length) {
+        return Integer.numberOfTrailingZeros(~word(word, length));
+    }
+
+    // 第 1 天往后的连续签到天数
+    private static int leadingOnes(int bits, int length) {
+        return Integer.numberOfLeadingZeros(~(bits << (32 - length)));
+    }
+
+    // 最长的连续1，每次跳过一段0和一段1
+    private static int longestRun(int bits) {
+        int best = 0;
+        while (bits != 0) {
+            bits >>>= Integer.numberOfTrailingZeros(bits);
+            int run = Integer.numberOfTrailingZeros(~bits);
+            best = Math.max(best, run);
+            // run 最多31，右移不会溢出
+            bits >>>= run;
+        }
+        return best;
+    }
+
+    private static boolean isSigned(int word, int dayOfMonth) {
+        return ((word >>> (MONTH_BITS - dayOfMonth)) & 1) == 1;
+    }
+
+    static String monthKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+
+    static String dayKey(LocalDate day) {
+        return SIGN_DAY_KEY + day.format(DAY_FORMATTER);
+    }
+
+    private static int parseInt(Object value) {
+        return value == null || value.toString().isEmpty() ? 0 : Integer.parseInt(value.toString());
+    }
+}
@@ -0,0 +1,213 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 无状态签名token
+ * <p>
+ * token 格式为 base64url(载荷).base64url(HMAC-SHA256(载荷))，载荷包含 tokenId、用户id、过期时间、昵称和头像，
+ * 校验token只需要一次HMAC计算，不访问Redis。
+ * 退出登录时把 tokenId 加入吊销集合 login:revoked（zset，分数为token过期时间），并通过同名 pub/sub 频道同步到所有节点的本地集合，
+ * 本地集合另外定时与Redis全量同步一次。
+ * 通过 hmdp.auth.mode=signed 开启，默认仍然使用保存在Redis中的随机token。
+ */
+@Slf4j
+@Component
+public class SignedTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final char SEPARATOR = '.';
+    private static final String FIELD_SEPARATOR = "\n";
+
+    /**
+     * token有效期（分钟）
+     */
+    private static final long TOKEN_TTL_MINUTES = 30L;
+
+    /**
+     * 密钥的最小长度（字节），与 HmacSHA256 的输出长度相同
+     */
+    private static final int MIN_SECRET_BYTES = 32;
+
+    // 曾经写在 application.yaml 中的示例密钥，已经公开，不能使用
+    private static final String PLACEHOLDER_SECRET = "hmdp-change-me-in-production";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    @Value("${hmdp.auth.mode:redis}")
+    private String mode;
+
+    @Value("${hmdp.auth.secret:}")
+    private String secret;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // Mac 不是线程安全的，每个线程复用一个
+    private ThreadLocal<Mac> macs;
+
+    // 本地的吊销集合，tokenId -> token过期时间
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        if (StrUtil.isBlank(secret)) {
+            throw new IllegalStateException("开启签名token时必须配置 hmdp.auth.secret");
+        }
+        // 拒绝曾经公开过的示例密钥和过短的密钥，避免token被伪造
+        if (PLACEHOLDER_SECRET.equals(secret) || secret.getBytes(StandardCharsets.UTF_8).length < MIN_SECRET_BYTES) {
+            throw new IllegalStateException("hmdp.auth.secret 不能使用示例值，且不能少于" + MIN_SECRET_BYTES + "个字节");
+        }
+        SecretKeySpec key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // 其他节点吊销token时加入本地集合，消息格式为 "tokenId:过期时间"
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":");
+            revoked.put(parts[0], Long.valueOf(parts[1]));
+        }, new ChannelTopic(LOGIN_REVOKED_KEY));
+        syncRevoked();
+    }
+
+    /**
+     * 是否开启签名token
+     */
+    public boolean isEnabled() {
+        return "signed".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * 是否是签名token，随机token中没有分隔符
+     */
+    public boolean isSigned(String token) {
+        return token != null && token.indexOf(SEPARATOR) > 0;
+    }
+
+    /**
+     * 签发token
+     */
+    public String issue(UserDTO user) {
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(TOKEN_TTL_MINUTES);
+        String payload = RandomUtil.randomString(12) + FIELD_SEPARATOR
+                + user.getId() + FIELD_SEPARATOR
+                + expireAt + FIELD_SEPARATOR
+                + StrUtil.nullToEmpty(user.getNickName()) + FIELD_SEPARATOR
+                + StrUtil.nullToEmpty(user.getIcon());
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(bytes) + SEPARATOR + ENCODER.encodeToString(macs.get().doFinal(bytes));
+    }
+
+    /**
+     * 校验token，不访问Redis
+     *
+     * @return token无效、过期或已吊销时返回null
+     */
+    public UserDTO verify(String token) {
+        String[] fields = parse(token);
+        if (fields == null || revoked.containsKey(fields[0])) {
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        user.setId(Long.valueOf(fields[1]));
+        user.setNickName(fields[3]);
+        user.setIcon(StrUtil.emptyToNull(fields[4]));
+        return user;
+    }
+
+    /**
+     * 吊销token：加入吊销集合，并通知所有节点
+     */
+    public void revoke(String token) {
+        String[] fields = parse(token);
+        if (fields == null) {
+            return;
+        }
+        revoked.put(fields[0], Long.valueOf(fields[2]));
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, fields[0], Double.parseDouble(fields[2]));
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKED_KEY, fields[0] + ":" + fields[2]);
+    }
+
+    /**
+     * 定时与Redis同步吊销集合，并清理已过期的token，弥补丢失的 pub/sub 消息
+     */
+    @Scheduled(fixedDelay = 60 * 1000, initialDelay = 60 * 1000)
+    public void syncRevoked() {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        // 已过期的token校验时会直接被拒绝，不需要再保留吊销记录
+        stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, now);
+        revoked.values().removeIf(expireAt -> expireAt < now);
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .rangeByScoreWithScores(LOGIN_REVOKED_KEY, now, Double.POSITIVE_INFINITY);
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                revoked.put(tuple.getValue(), tuple.getScore().longValue());
+            }
+        }
+    }
+
+    // 校验签名和有效期，返回载荷字段：tokenId、用户id、过期时间、昵称、头像
+    private String[] parse(String token) {
+        if (!isEnabled() || !isSigned(token)) {
+            return null;
+        }
+        try {
+            int index = token.indexOf(SEPARATOR);
+            byte[] payload = DECODER.decode(token.substring(0, index));
+            byte[] signature = DECODER.decode(token.substring(index + 1));
+            // 常量时间比较，避免时序攻击
+            if (!MessageDigest.isEqual(macs.get().doFinal(payload), signature)) {
+                return null;
+            }
+            String[] fields = new String(payload, StandardCharsets.UTF_8).split(FIELD_SEPARATOR, -1);
+            if (fields.length != 5 || Long.parseLong(fields[2]) < System.currentTimeMillis()) {
+                return null;
+            }
+            return fields;
+        } catch (IllegalArgumentException e) {
+            // base64 或数字格式错误
+            return null;
+        }
+    }
+}
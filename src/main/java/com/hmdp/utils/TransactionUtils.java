@@ -0,0 +1,28 @@
+package com.hmdp.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 事务相关的工具类
+ */
+public class TransactionUtils {
+
+    /**
+     * 有事务时在提交后执行，回滚时不执行；没有事务时立即执行
+     * <p>
+     * 用于删除缓存、同步索引等：提交前执行时，并发的查询可能在提交前读到旧数据并重新写入缓存
+     */
+    public static void afterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+}
@@ -2,18 +2,41 @@ package com.hmdp.utils;
 
 import com.hmdp.dto.UserDTO;
 
+import java.util.function.Supplier;
+
 public class UserHolder {
     private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
+    // 延迟解析当前用户，只有业务代码真正获取用户时才查询会话
+    private static final ThreadLocal<Supplier<UserDTO>> resolver = new ThreadLocal<>();
 
     public static void saveUser(UserDTO user) {
         tl.set(user);
     }
 
+    public static void saveResolver(Supplier<UserDTO> userResolver) {
+        resolver.set(userResolver);
+    }
+
+    /**
+     * 获取当前用户，第一次获取时才解析会话，同一个请求只解析一次
+     *
+     * @return 未登录时返回null
+     */
     public static UserDTO getUser() {
-        return tl.get();
+        UserDTO user = tl.get();
+        if (user == null) {
+            Supplier<UserDTO> userResolver = resolver.get();
+            if (userResolver != null) {
+                resolver.remove();
+                user = userResolver.get();
+                tl.set(user);
+            }
+        }
+        return user;
     }
 
     public static void removeUser() {
         tl.remove();
+        resolver.remove();
     }
 }
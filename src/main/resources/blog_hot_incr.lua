@@ -0,0 +1,38 @@
+-- 1、参数列表
+-- 热度排行榜key
+local hotKey = KEYS[1]
+-- 衰减基准时间key
+local landmarkKey = KEYS[2]
+-- 笔记id
+local blogId = ARGV[1]
+-- 本次事件的权重（点赞为正、取消点赞为负）
+local weight = tonumber(ARGV[2])
+-- 当前时间（毫秒）
+local now = tonumber(ARGV[3])
+-- 衰减系数（每毫秒）
+local lambda = tonumber(ARGV[4])
+-- 事件发生时间（毫秒），撤销事件传被撤销事件的时间，默认为当前时间
+local eventTime = tonumber(ARGV[5] or ARGV[3])
+
+-- 2、读取衰减基准时间，不存在则以当前时间为基准
+local landmark = tonumber(redis.call('get', landmarkKey))
+if (landmark == nil) then
+    landmark = now
+    redis.call('set', landmarkKey, ARGV[3])
+end
+
+-- 3、撤销事件只扣减仍在排行榜中的笔记，不把已淘汰的笔记重新加入
+if (weight < 0 and redis.call('zscore', hotKey, blogId) == false) then
+    return 0
+end
+
+-- 4、前向衰减：事件越新权重越大，排行榜中的相对顺序与按当前时间衰减后的顺序一致
+-- 撤销事件按原事件的时间放大，扣减的正好是原事件增加的分数
+local delta = weight * math.exp(lambda * (eventTime - landmark))
+local score = tonumber(redis.call('zincrby', hotKey, delta, blogId))
+
+-- 5、浮点误差或重建排行榜时的估算可能使分数略低于0，兜底为0
+if (score < 0) then
+    redis.call('zadd', hotKey, 0, blogId)
+end
+return 0
@@ -0,0 +1,23 @@
+-- 1、参数列表
+-- 热度排行榜key
+local hotKey = KEYS[1]
+-- 衰减基准时间key
+local landmarkKey = KEYS[2]
+-- 当前时间（毫秒）
+local now = tonumber(ARGV[1])
+-- 衰减系数（每毫秒）
+local lambda = tonumber(ARGV[2])
+-- 排行榜最多保留的笔记数量
+local maxSize = tonumber(ARGV[3])
+
+-- 2、把所有分数统一衰减到新的基准时间 ZUNIONSTORE hotKey 1 hotKey WEIGHTS factor
+local landmark = tonumber(redis.call('get', landmarkKey))
+if (landmark ~= nil and now > landmark) then
+    local factor = math.exp(-lambda * (now - landmark))
+    redis.call('zunionstore', hotKey, 1, hotKey, 'WEIGHTS', factor)
+end
+redis.call('set', landmarkKey, ARGV[1])
+
+-- 3、只保留热度最高的 maxSize 篇笔记
+redis.call('zremrangebyrank', hotKey, 0, -(maxSize + 1))
+return 0
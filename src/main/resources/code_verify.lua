@@ -0,0 +1,39 @@
+-- 1、参数列表
+-- 验证码key
+local codeKey = KEYS[1]
+-- 验证失败次数key
+local attemptKey = KEYS[2]
+-- 提交的验证码
+local code = ARGV[1]
+-- 最多失败次数，以及达到后的锁定时间（秒）
+local maxAttempts = tonumber(ARGV[2])
+local lockTtl = tonumber(ARGV[3])
+
+-- 2、脚本业务
+-- 2.1 已锁定，返回3和剩余锁定时间（毫秒）
+local attempts = tonumber(redis.call('get', attemptKey) or 0)
+if (attempts >= maxAttempts) then
+    return {3, redis.call('pttl', attemptKey)}
+end
+-- 2.2 验证码不存在或已过期，返回2
+local cacheCode = redis.call('get', codeKey)
+if (not cacheCode) then
+    return {2, 0}
+end
+-- 2.3 验证通过，验证码只能使用一次
+if (cacheCode == code) then
+    redis.call('del', codeKey, attemptKey)
+    return {0, 0}
+end
+-- 2.4 验证失败，累加失败次数，达到上限时作废验证码并锁定
+attempts = redis.call('incr', attemptKey)
+if (attempts >= maxAttempts) then
+    redis.call('del', codeKey)
+    redis.call('expire', attemptKey, lockTtl)
+    return {3, lockTtl * 1000}
+end
+if (attempts == 1) then
+    redis.call('expire', attemptKey, lockTtl)
+end
+-- 返回1和剩余可尝试次数
+return {1, maxAttempts - attempts}
@@ -0,0 +1,18 @@
+-- 1、参数列表
+-- 笔记最近一级评论窗口key
+local windowKey = KEYS[1]
+-- 评论id
+local commentId = ARGV[1]
+-- 窗口最多保留的评论数量
+local windowSize = tonumber(ARGV[2])
+
+-- 2、窗口未加载时不处理，下次查询时从数据库加载
+if (redis.call('exists', windowKey) == 0) then
+    return 0
+end
+-- 3、加入窗口，评论id自增，直接作为分数
+redis.call('zadd', windowKey, commentId, commentId)
+-- 4、删除“没有评论”的占位成员，并只保留最新的 windowSize 条
+redis.call('zrem', windowKey, '0')
+redis.call('zremrangebyrank', windowKey, 0, -(windowSize + 1))
+return 1
@@ -0,0 +1,30 @@
+-- 1、参数列表
+-- 较小的关注集合key，用 SSCAN 遍历
+local smallKey = KEYS[1]
+-- 较大的关注集合key，用 SISMEMBER 探测
+local largeKey = KEYS[2]
+-- SSCAN 游标，第一页为 0
+local cursor = ARGV[1]
+-- 每页期望的共同关注数量
+local pageSize = tonumber(ARGV[2])
+-- 单次调用最多遍历的成员数量，避免长时间阻塞Redis
+local maxScan = tonumber(ARGV[3])
+
+-- 2、遍历较小的集合，逐个探测是否在较大的集合中
+local found = {}
+local scanned = 0
+repeat
+    local result = redis.call('sscan', smallKey, cursor, 'COUNT', pageSize)
+    cursor = result[1]
+    for _, member in ipairs(result[2]) do
+        -- 跳过占位成员 0
+        if (member ~= '0' and redis.call('sismember', largeKey, member) == 1) then
+            table.insert(found, member)
+        end
+    end
+    scanned = scanned + #result[2]
+until (cursor == '0' or #found >= pageSize or scanned >= maxScan)
+
+-- 3、返回下一页游标和本页的共同关注，游标为 0 表示遍历结束
+table.insert(found, 1, cursor)
+return found
@@ -0,0 +1,31 @@
+-- 1、参数列表
+-- 正在累加的增量hash
+local pendingKey = KEYS[1]
+-- 正在刷入数据库的增量hash
+local flushingKey = KEYS[2]
+-- 本次刷入的批次信息 "刷入id:分组数"
+local flushIdKey = KEYS[3]
+-- 新的刷入id
+local flushId = ARGV[1]
+-- 每组最多的记录数
+local batchSize = tonumber(ARGV[2])
+
+-- 2、上一次刷入未完成（进程崩溃或数据库异常），沿用原来的刷入id和分组，已写入的分组不会重复写入
+if (redis.call('exists', flushingKey) == 1) then
+    local info = redis.call('get', flushIdKey)
+    if (info) then
+        return info
+    end
+else
+    -- 3、没有新的增量
+    if (redis.call('exists', pendingKey) == 0) then
+        return false
+    end
+    -- 4、原子地把累加中的增量切换为待刷入，后续增量写入新的pendingKey
+    redis.call('rename', pendingKey, flushingKey)
+end
+-- 5、记录刷入id和分组数，flushingKey 删除前不再变化
+local buckets = math.ceil(redis.call('hlen', flushingKey) / batchSize)
+local info = flushId .. ':' .. buckets
+redis.call('set', flushIdKey, info)
+return info
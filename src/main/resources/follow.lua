@@ -0,0 +1,54 @@
+-- 1、参数列表
+-- 当前用户的关注集合key
+local followsKey = KEYS[1]
+-- 被关注用户的粉丝集合key
+local followersKey = KEYS[2]
+-- 待刷入数据库的关注关系变更hash
+local pendingKey = KEYS[3]
+-- 待刷入数据库的粉丝数增量hash
+local fansKey = KEYS[4]
+-- 待刷入数据库的关注数增量hash
+local followeeKey = KEYS[5]
+-- 当前用户关注集合的HyperLogLog，用于估算共同关注数
+local hllKey = KEYS[6]
+-- 当前用户的可能认识的人推荐
+local recommendKey = KEYS[7]
+-- 当前用户id
+local userId = ARGV[1]
+-- 被关注用户id
+local followUserId = ARGV[2]
+-- 1：关注，0：取关
+local isFollow = ARGV[3]
+
+-- 2、脚本业务
+local field = userId .. ':' .. followUserId
+if (isFollow == '1') then
+    -- 2.1 关注，已关注时不做任何修改
+    if (redis.call('sadd', followsKey, followUserId) == 0) then
+        return 0
+    end
+    redis.call('sadd', followersKey, userId)
+    -- 2.2 记录变更，+1 表示新增关注关系，同时累加粉丝数和关注数
+    redis.call('hincrby', pendingKey, field, 1)
+    redis.call('hincrby', fansKey, followUserId, 1)
+    redis.call('hincrby', followeeKey, userId, 1)
+    -- 2.3 HyperLogLog 已构建时同步加入
+    if (redis.call('exists', hllKey) == 1) then
+        redis.call('pfadd', hllKey, followUserId)
+    end
+    -- 2.4 已关注的用户不再推荐
+    redis.call('zrem', recommendKey, followUserId)
+else
+    -- 2.5 取关，未关注时不做任何修改
+    if (redis.call('srem', followsKey, followUserId) == 0) then
+        return 0
+    end
+    redis.call('srem', followersKey, userId)
+    -- 2.6 记录变更，-1 表示删除关注关系，同时扣减粉丝数和关注数
+    redis.call('hincrby', pendingKey, field, -1)
+    redis.call('hincrby', fansKey, followUserId, -1)
+    redis.call('hincrby', followeeKey, userId, -1)
+    -- 2.7 HyperLogLog 不支持删除，直接删除，下次估算时重新构建
+    redis.call('del', hllKey)
+end
+return 1
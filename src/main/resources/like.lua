@@ -0,0 +1,72 @@
+-- 1、参数列表
+-- 点赞用户分片key（按用户id区间分片），成员较少时是偏移量set，超过上限后转为位图
+local likedKey = KEYS[1]
+-- 最早、最近点赞用户窗口key
+local likersKey = KEYS[2]
+-- 待刷入数据库的点赞数增量hash
+local pendingKey = KEYS[3]
+-- 正在刷入数据库的点赞数增量hash
+local flushingKey = KEYS[4]
+-- 笔记id
+local blogId = ARGV[1]
+-- 用户id
+local userId = ARGV[2]
+-- 用户在位图分片中的偏移量
+local offset = tonumber(ARGV[3])
+-- 点赞时间
+local now = ARGV[4]
+-- 窗口中最早、最近点赞用户各保留的数量
+local windowSize = tonumber(ARGV[5])
+-- 分片为set时最多保存的成员数
+local setMax = tonumber(ARGV[6])
+
+-- 2、脚本业务
+local isLike
+local pending
+-- 取消点赞时返回点赞时间，用来扣减这次点赞增加的热度；不在窗口中时为0
+local likedAt = 0
+-- 2.1 按分片当前的类型判断是否已点赞
+local isBitmap = redis.call('type', likedKey).ok == 'string'
+local liked
+if (isBitmap) then
+    liked = redis.call('getbit', likedKey, offset) == 1
+else
+    liked = redis.call('sismember', likedKey, offset) == 1
+end
+if (not liked) then
+    -- 2.2 未点赞，记录点赞，set超过 setMax 个成员后转为位图
+    if (isBitmap) then
+        redis.call('setbit', likedKey, offset, 1)
+    else
+        redis.call('sadd', likedKey, offset)
+        if (redis.call('scard', likedKey) > setMax) then
+            local offsets = redis.call('smembers', likedKey)
+            redis.call('del', likedKey)
+            for i = 1, #offsets do
+                redis.call('setbit', likedKey, offsets[i], 1)
+            end
+        end
+    end
+    -- 累加点赞数增量
+    pending = redis.call('hincrby', pendingKey, blogId, 1)
+    -- 2.3 记录到点赞用户窗口，超出后淘汰“最早窗口”之后最旧的一个，保留最早和最近的各 windowSize 个
+    redis.call('zadd', likersKey, now, userId)
+    if (redis.call('zcard', likersKey) > 2 * windowSize) then
+        redis.call('zremrangebyrank', likersKey, windowSize, windowSize)
+    end
+    isLike = 1
+else
+    -- 2.4 已点赞，取消点赞并扣减点赞数增量
+    if (isBitmap) then
+        redis.call('setbit', likedKey, offset, 0)
+    else
+        redis.call('srem', likedKey, offset)
+    end
+    pending = redis.call('hincrby', pendingKey, blogId, -1)
+    likedAt = tonumber(redis.call('zscore', likersKey, userId) or 0)
+    redis.call('zrem', likersKey, userId)
+    isLike = 0
+end
+-- 3、返回新的点赞状态、尚未刷入数据库的点赞数增量，以及取消的点赞的时间
+local flushing = tonumber(redis.call('hget', flushingKey, blogId) or 0)
+return {isLike, pending + flushing, likedAt}
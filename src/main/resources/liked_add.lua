@@ -0,0 +1,27 @@
+-- 1、参数列表
+-- 点赞用户分片key，成员较少时是偏移量set，超过上限后转为位图
+local likedKey = KEYS[1]
+-- set最多保存的成员数，超过后转为位图
+local setMax = tonumber(ARGV[1])
+-- ARGV[2..n] 是要记录的用户偏移量
+
+-- 2、已经是位图时直接 SETBIT
+if (redis.call('type', likedKey).ok == 'string') then
+    for i = 2, #ARGV do
+        redis.call('setbit', likedKey, ARGV[i], 1)
+    end
+    return 0
+end
+
+-- 3、写入set，超过上限后转为位图
+for i = 2, #ARGV do
+    redis.call('sadd', likedKey, ARGV[i])
+end
+if (redis.call('scard', likedKey) > setMax) then
+    local offsets = redis.call('smembers', likedKey)
+    redis.call('del', likedKey)
+    for i = 1, #offsets do
+        redis.call('setbit', likedKey, offsets[i], 1)
+    end
+end
+return 0
@@ -0,0 +1,10 @@
+-- 点赞用户分片key，成员较少时是偏移量set，超过上限后转为位图
+local likedKey = KEYS[1]
+-- 用户在分片中的偏移量
+local offset = ARGV[1]
+
+-- 按分片当前的类型判断是否已点赞
+if (redis.call('type', likedKey).ok == 'string') then
+    return redis.call('getbit', likedKey, offset)
+end
+return redis.call('sismember', likedKey, offset)
@@ -0,0 +1,22 @@
+-- 1、参数列表
+-- KEYS[1] 是排序索引的版本号key，商铺修改时自增
+-- KEYS[2..n] 依次是 临时key、排序索引key
+-- 开始加载时读取的版本号
+local version = ARGV[1]
+-- 排序索引的有效期（秒）
+local ttl = ARGV[2]
+
+-- 2、加载期间有商铺修改过，读取的数据可能已过期，丢弃
+if ((redis.call('get', KEYS[1]) or '0') ~= version) then
+    for i = 2, #KEYS, 2 do
+        redis.call('del', KEYS[i])
+    end
+    return 0
+end
+
+-- 3、版本号没有变化，替换排序索引
+for i = 2, #KEYS, 2 do
+    redis.call('rename', KEYS[i], KEYS[i + 1])
+    redis.call('expire', KEYS[i + 1], ttl)
+end
+return 1
@@ -0,0 +1,38 @@
+-- 1、参数列表
+-- 本月签到位图key
+local signKey = KEYS[1]
+-- 连续签到缓存hash：last 最近一次签到日期，cur 当前连续天数，max 最长连续天数
+local streakKey = KEYS[2]
+-- 当天全站签到位图key，偏移量为用户id
+local dayKey = KEYS[3]
+-- 今天在位图中的偏移量
+local offset = tonumber(ARGV[1])
+-- 今天、昨天的日期 yyyyMMdd
+local today = ARGV[2]
+local yesterday = ARGV[3]
+-- 用户id
+local userId = tonumber(ARGV[4])
+-- 全站签到位图的有效期（秒）
+local dayTtl = tonumber(ARGV[5])
+
+-- 2、脚本业务
+-- 2.0 同时写入当天的全站签到位图
+if (redis.call('setbit', dayKey, userId, 1) == 0) then
+    redis.call('expire', dayKey, dayTtl)
+end
+-- 2.1 SETBIT 返回旧值，今天已经签到过时连续天数不变
+if (redis.call('setbit', signKey, offset, 1) == 1) then
+    return tonumber(redis.call('hget', streakKey, 'cur') or 0)
+end
+-- 2.2 昨天签到过则连续天数加一，否则重新开始
+local cur = 1
+if (redis.call('hget', streakKey, 'last') == yesterday) then
+    cur = tonumber(redis.call('hget', streakKey, 'cur') or 0) + 1
+end
+local max = tonumber(redis.call('hget', streakKey, 'max') or 0)
+if (cur > max) then
+    max = cur
+end
+redis.call('hset', streakKey, 'last', today, 'cur', cur, 'max', max)
+-- 3、返回当前连续签到天数
+return cur
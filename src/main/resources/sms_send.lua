@@ -0,0 +1,69 @@
+-- 1、参数列表
+-- 验证码key
+local codeKey = KEYS[1]
+-- 手机号、IP、全站的发送记录zset，分数为发送时间
+local phoneKey = KEYS[2]
+local ipKey = KEYS[3]
+local globalKey = KEYS[4]
+-- 验证失败次数key
+local attemptKey = KEYS[5]
+-- 当前时间（毫秒）
+local now = tonumber(ARGV[1])
+-- 验证码及有效期（秒）
+local code = ARGV[2]
+local codeTtl = tonumber(ARGV[3])
+-- 同一手机号两次发送的最小间隔（毫秒）
+local cooldown = tonumber(ARGV[4])
+-- 滑动窗口大小（毫秒）和窗口内的发送上限：手机号、IP、全站
+local phoneWindow = tonumber(ARGV[5])
+local phoneMax = tonumber(ARGV[6])
+local ipWindow = tonumber(ARGV[7])
+local ipMax = tonumber(ARGV[8])
+local globalWindow = tonumber(ARGV[9])
+local globalMax = tonumber(ARGV[10])
+-- 本次发送记录的唯一成员
+local member = ARGV[11]
+-- 验证码最多失败次数，达到后在锁定期内不能发送新的验证码
+local maxAttempts = tonumber(ARGV[12])
+
+-- 2、脚本业务
+-- 2.1 删除窗口之外的发送记录
+redis.call('zremrangebyscore', phoneKey, 0, now - phoneWindow)
+redis.call('zremrangebyscore', ipKey, 0, now - ipWindow)
+redis.call('zremrangebyscore', globalKey, 0, now - globalWindow)
+-- 2.2 验证失败次数已达上限，锁定期内不发送，返回5和剩余锁定时间，不能通过重新发送解除锁定
+local attempts = tonumber(redis.call('get', attemptKey) or 0)
+if (attempts >= maxAttempts) then
+    return {5, redis.call('pttl', attemptKey)}
+end
+-- 2.3 同一手机号冷却中，返回1和剩余等待时间
+local last = redis.call('zrevrange', phoneKey, 0, 0, 'withscores')
+if (#last > 0 and now - tonumber(last[2]) < cooldown) then
+    return {1, cooldown - (now - tonumber(last[2]))}
+end
+-- 2.4 窗口内发送次数达到上限，返回对应状态和最早一条记录滑出窗口的等待时间
+local function oldest(key, window)
+    local first = redis.call('zrange', key, 0, 0, 'withscores')
+    return tonumber(first[2]) + window - now
+end
+if (redis.call('zcard', phoneKey) >= phoneMax) then
+    return {2, oldest(phoneKey, phoneWindow)}
+end
+if (redis.call('zcard', ipKey) >= ipMax) then
+    return {3, oldest(ipKey, ipWindow)}
+end
+if (redis.call('zcard', globalKey) >= globalMax) then
+    return {4, oldest(globalKey, globalWindow)}
+end
+-- 2.5 记录本次发送
+redis.call('zadd', phoneKey, now, member)
+redis.call('pexpire', phoneKey, phoneWindow)
+redis.call('zadd', ipKey, now, member)
+redis.call('pexpire', ipKey, ipWindow)
+redis.call('zadd', globalKey, now, member)
+redis.call('pexpire', globalKey, globalWindow)
+-- 2.6 保存验证码，未锁定时新的验证码重新计算失败次数
+redis.call('set', codeKey, code, 'EX', codeTtl)
+redis.call('del', attemptKey)
+-- 3、发送成功，返回0
+return {0, 0}
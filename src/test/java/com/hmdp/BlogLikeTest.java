@@ -0,0 +1,98 @@
+package com.hmdp;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.service.impl.BlogServiceImpl;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_PENDING_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_SHARD_BITS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+public class BlogLikeTest {
+    @Resource
+    private BlogServiceImpl blogService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ExecutorService es = Executors.newFixedThreadPool(50);
+
+    // 模拟用户id，避免与真实用户的点赞冲突
+    private static final long USER_ID_BEGIN = 900_000_000L;
+    private static final int USER_COUNT = 100;
+    // 每个用户并发点击的次数，奇数次最终为点赞状态
+    private static final int TAP_COUNT = 3;
+
+    @Test
+    void testConcurrentLike() throws InterruptedException {
+        Blog blog = blogService.query().last("LIMIT 1").one();
+        Long blogId = blog.getId();
+        // 1.先把已有的增量刷入数据库，记录初始点赞数
+        flushAll();
+        int before = blogService.getById(blogId).getLiked();
+
+        // 2.所有用户同时对同一篇笔记连续点击
+        tapAll(blogId, TAP_COUNT);
+        flushAll();
+
+        // 3.每个用户都应处于点赞状态，数据库点赞数恰好增加USER_COUNT
+        assertEquals(before + USER_COUNT, blogService.getById(blogId).getLiked());
+        for (int i = 0; i < USER_COUNT; i++) {
+            long userId = USER_ID_BEGIN + i;
+            String key = BLOG_LIKED_KEY + blogId + ":" + (userId >>> BLOG_LIKED_SHARD_BITS);
+            long offset = userId & ((1L << BLOG_LIKED_SHARD_BITS) - 1);
+            // 分片成员较少时是偏移量set，超过上限后是位图
+            Boolean isLike = DataType.STRING == stringRedisTemplate.type(key)
+                    ? stringRedisTemplate.opsForValue().getBit(key, offset)
+                    : stringRedisTemplate.opsForSet().isMember(key, String.valueOf(offset));
+            assertEquals(true, isLike);
+        }
+
+        // 4.再各点击一次取消点赞，点赞数恢复
+        tapAll(blogId, 1);
+        flushAll();
+        assertEquals(before, blogService.getById(blogId).getLiked());
+    }
+
+    // 定时任务可能正持有刷入锁，循环直到所有增量都刷入数据库
+    private void flushAll() throws InterruptedException {
+        while (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKED_PENDING_KEY))
+                || Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKED_PENDING_KEY + ":flushing"))) {
+            blogService.flushLiked();
+            Thread.sleep(50);
+        }
+    }
+
+    private void tapAll(Long blogId, int taps) throws InterruptedException {
+        CountDownLatch countDownLatch = new CountDownLatch(USER_COUNT * taps);
+        for (int t = 0; t < taps; t++) {
+            for (int i = 0; i < USER_COUNT; i++) {
+                long userId = USER_ID_BEGIN + i;
+                es.submit(() -> {
+                    UserDTO user = new UserDTO();
+                    user.setId(userId);
+                    UserHolder.saveUser(user);
+                    try {
+                        blogService.likeBlog(blogId);
+                    } finally {
+                        UserHolder.removeUser();
+                        countDownLatch.countDown();
+                    }
+                });
+            }
+        }
+        countDownLatch.await();
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp;
+
+import com.hmdp.utils.GeoGrid;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 对比内存网格索引和Redis GEOSEARCH查询附近商铺的耗时，并校验两者结果一致
+ */
+@SpringBootTest
+public class ShopGeoIndexBenchmarkTest {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final int SHOPS = 100_000;
+    private static final int K = 20;
+    private static final double RADIUS = 5000;
+    private static final int WARMUP = 2_000;
+    private static final int GRID_ROUNDS = 100_000;
+    private static final int REDIS_ROUNDS = 5_000;
+
+    // 杭州市区附近的范围
+    private static final double MIN_X = 120.0;
+    private static final double MIN_Y = 30.1;
+    private static final double SPAN = 0.3;
+
+    @Test
+    void benchmarkNearest() {
+        Random random = new Random(42);
+        long[] ids = new long[SHOPS];
+        double[] xs = new double[SHOPS];
+        double[] ys = new double[SHOPS];
+        for (int i = 0; i < SHOPS; i++) {
+            ids[i] = i + 1;
+            xs[i] = MIN_X + random.nextDouble() * SPAN;
+            ys[i] = MIN_Y + random.nextDouble() * SPAN;
+        }
+        double[][] queries = new double[1000][];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new double[]{MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN};
+        }
+
+        // 1.内存网格索引
+        long begin = System.nanoTime();
+        GeoGrid grid = GeoGrid.build(ids, xs, ys);
+        long buildMillis = (System.nanoTime() - begin) / 1_000_000;
+        long[] outIds = new long[K];
+        double[] outDistances = new double[K];
+        for (int i = 0; i < WARMUP; i++) {
+            double[] q = queries[i % queries.length];
+            grid.nearest(q[0], q[1], RADIUS, K, outIds, outDistances);
+        }
+        begin = System.nanoTime();
+        for (int i = 0; i < GRID_ROUNDS; i++) {
+            double[] q = queries[i % queries.length];
+            grid.nearest(q[0], q[1], RADIUS, K, outIds, outDistances);
+        }
+        long gridNanos = (System.nanoTime() - begin) / GRID_ROUNDS;
+
+        // 2.Redis GEOSEARCH，写入临时key
+        String key = "shop:geo:benchmark";
+        List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(SHOPS);
+        for (int i = 0; i < SHOPS; i++) {
+            locations.add(new RedisGeoCommands.GeoLocation<>(String.valueOf(ids[i]), new Point(xs[i], ys[i])));
+        }
+        RedisGeoCommands.GeoSearchCommandArgs args = RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                .includeDistance().sortAscending().limit(K);
+        long redisNanos;
+        try {
+            for (int i = 0; i < SHOPS; i += 10_000) {
+                stringRedisTemplate.opsForGeo().add(key, locations.subList(i, Math.min(i + 10_000, SHOPS)));
+            }
+            for (int i = 0; i < WARMUP / 10; i++) {
+                double[] q = queries[i % queries.length];
+                stringRedisTemplate.opsForGeo().search(key, GeoReference.fromCoordinate(q[0], q[1]), new Distance(RADIUS), args);
+            }
+            begin = System.nanoTime();
+            for (int i = 0; i < REDIS_ROUNDS; i++) {
+                double[] q = queries[i % queries.length];
+                stringRedisTemplate.opsForGeo().search(key, GeoReference.fromCoordinate(q[0], q[1]), new Distance(RADIUS), args);
+            }
+            redisNanos = (System.nanoTime() - begin) / REDIS_ROUNDS;
+
+            // 3.校验结果一致：最近的商铺相同
+            for (int i = 0; i < 100; i++) {
+                double[] q = queries[i];
+                int count = grid.nearest(q[0], q[1], RADIUS, K, outIds, outDistances);
+                GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
+                        .search(key, GeoReference.fromCoordinate(q[0], q[1]), new Distance(RADIUS), args);
+                assertEquals(results.getContent().size(), count);
+                assertEquals(results.getContent().get(0).getContent().getName(), String.valueOf(outIds[0]));
+            }
+        } finally {
+            stringRedisTemplate.delete(key);
+        }
+
+        System.out.println("内存网格索引构建耗时：" + buildMillis + "ms，商铺" + SHOPS + "个");
+        System.out.println("内存网格索引查询耗时：" + gridNanos + "ns/次");
+        System.out.println("Redis GEOSEARCH查询耗时：" + redisNanos + "ns/次");
+    }
+}
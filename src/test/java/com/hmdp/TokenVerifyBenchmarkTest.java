@@ -0,0 +1,76 @@
+package com.hmdp;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.SignedTokens;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * 对比校验签名token和从Redis读取会话（HGETALL）的耗时
+ */
+@SpringBootTest(properties = {"hmdp.auth.mode=signed", "hmdp.auth.secret=benchmark-secret-at-least-32-bytes!"})
+public class TokenVerifyBenchmarkTest {
+    @Resource
+    private SignedTokens signedTokens;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final int WARMUP = 20_000;
+    private static final int SIGNED_ROUNDS = 200_000;
+    private static final int REDIS_ROUNDS = 20_000;
+
+    @Test
+    void benchmarkVerify() {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName("benchmark");
+        user.setIcon("/imgs/icons/benchmark.jpg");
+
+        // 1.签名token
+        String token = signedTokens.issue(user);
+        for (int i = 0; i < WARMUP; i++) {
+            signedTokens.verify(token);
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < SIGNED_ROUNDS; i++) {
+            assertNotNull(signedTokens.verify(token));
+        }
+        long signedNanos = (System.nanoTime() - begin) / SIGNED_ROUNDS;
+
+        // 2.Redis会话，与原来的拦截器一样每次 HGETALL
+        String key = LOGIN_USER_KEY + UUID.randomUUID();
+        Map<String, String> userMap = new HashMap<>();
+        userMap.put("id", "1");
+        userMap.put("nickName", "benchmark");
+        userMap.put("icon", "/imgs/icons/benchmark.jpg");
+        stringRedisTemplate.opsForHash().putAll(key, userMap);
+        stringRedisTemplate.expire(key, 5, TimeUnit.MINUTES);
+        try {
+            for (int i = 0; i < WARMUP / 10; i++) {
+                stringRedisTemplate.opsForHash().entries(key);
+            }
+            begin = System.nanoTime();
+            for (int i = 0; i < REDIS_ROUNDS; i++) {
+                assertEquals(3, stringRedisTemplate.opsForHash().entries(key).size());
+            }
+        } finally {
+            stringRedisTemplate.delete(key);
+        }
+        long redisNanos = (System.nanoTime() - begin) / REDIS_ROUNDS;
+
+        System.out.println("签名token校验耗时：" + signedNanos + "ns/次");
+        System.out.println("Redis HGETALL耗时：" + redisNanos + "ns/次");
+    }
+}